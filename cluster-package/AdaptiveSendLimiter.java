@@ -0,0 +1,126 @@
+package com.example.producer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Giới hạn số tin nhắn đang gửi (chưa có kết quả cuối cùng) theo thuật toán AIMD:
+ * tăng giới hạn thêm 1 sau mỗi "limit" xác nhận nhanh, giảm theo hệ số khi gửi lỗi
+ * hoặc độ trễ xác nhận vượt ngưỡng. Tin nhắn vượt giới hạn bị từ chối ngay thay vì xếp hàng.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class AdaptiveSendLimiter {
+
+    @Value("${kafka.producer.adaptive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.producer.adaptive.min-limit:16}")
+    private int minLimit;
+
+    @Value("${kafka.producer.adaptive.max-limit:10000}")
+    private int maxLimit;
+
+    @Value("${kafka.producer.adaptive.latency-threshold-ms:250}")
+    private long latencyThresholdMs;
+
+    @Value("${kafka.producer.adaptive.backoff-ratio:0.7}")
+    private double backoffRatio;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder decreases = new LongAdder();
+
+    // Chỉ thay đổi khi giữ khóa của đối tượng này; đọc không khóa trên đường gửi
+    private volatile int limit;
+    private int fastAcksSinceIncrease;
+    private long lastDecreaseNanos;
+
+    public AdaptiveSendLimiter(@Value("${kafka.producer.adaptive.initial-limit:1000}") int initialLimit) {
+        this.limit = initialLimit;
+        this.lastDecreaseNanos = System.nanoTime() - TimeUnit.HOURS.toNanos(1);
+    }
+
+    /**
+     * Giữ một chỗ cho tin nhắn mới; trả về false nếu đã đạt giới hạn.
+     * Mỗi lần thành công phải được trả lại đúng một lần bằng {@link #release()}.
+     */
+    public boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (enabled) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public void onAck(long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(latencyNanos) > latencyThresholdMs) {
+            decrease("ack latency " + TimeUnit.NANOSECONDS.toMillis(latencyNanos) + " ms");
+            return;
+        }
+        synchronized (this) {
+            if (++fastAcksSinceIncrease >= limit) {
+                fastAcksSinceIncrease = 0;
+                limit = Math.min(maxLimit, limit + 1);
+            }
+        }
+    }
+
+    public void onError() {
+        if (enabled) {
+            decrease("send failure");
+        }
+    }
+
+    // Giảm tối đa một lần cho mỗi ngưỡng độ trễ để một loạt lỗi cùng lúc không kéo giới hạn về mức tối thiểu
+    private void decrease(String reason) {
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - lastDecreaseNanos < TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs)) {
+                return;
+            }
+            lastDecreaseNanos = now;
+            fastAcksSinceIncrease = 0;
+            int previous = limit;
+            limit = Math.max(minLimit, (int) (limit * backoffRatio));
+            decreases.increment();
+            log.warn("Reducing in-flight send limit from {} to {} after {}", previous, limit, reason);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("limit", limit);
+        stats.put("inFlight", inFlight.get());
+        stats.put("rejected", rejected.sum());
+        stats.put("decreases", decreases.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.producer.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveSendLimiterTest {
+
+    private static final long LATENCY_THRESHOLD_MS = 20;
+    private static final long FAST_ACK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW_ACK_NANOS = TimeUnit.MILLISECONDS.toNanos(LATENCY_THRESHOLD_MS + 1);
+
+    @Test
+    void rejectsAboveLimitUntilReleased() {
+        AdaptiveSendLimiter limiter = limiter(3);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+
+        assertFalse(limiter.tryAcquire());
+        limiter.release();
+        assertTrue(limiter.tryAcquire());
+
+        assertEquals(3, limiter.getStats().get("inFlight"));
+        assertEquals(1L, limiter.getStats().get("rejected"));
+    }
+
+    @Test
+    void additiveIncreaseAfterLimitFastAcks() {
+        AdaptiveSendLimiter limiter = limiter(10);
+        for (int i = 0; i < 9; i++) {
+            limiter.onAck(FAST_ACK_NANOS);
+        }
+        assertEquals(10, limit(limiter));
+
+        limiter.onAck(FAST_ACK_NANOS);
+        assertEquals(11, limit(limiter));
+
+        // Bước tiếp theo cần số xác nhận bằng giới hạn mới
+        for (int i = 0; i < 10; i++) {
+            limiter.onAck(FAST_ACK_NANOS);
+        }
+        assertEquals(11, limit(limiter));
+        limiter.onAck(FAST_ACK_NANOS);
+        assertEquals(12, limit(limiter));
+    }
+
+    @Test
+    void increaseStopsAtMaxLimit() {
+        AdaptiveSendLimiter limiter = limiter(10);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 10);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onAck(FAST_ACK_NANOS);
+        }
+
+        assertEquals(10, limit(limiter));
+    }
+
+    @Test
+    void multiplicativeDecreaseOnErrorAndSlowAck() throws InterruptedException {
+        AdaptiveSendLimiter limiter = limiter(100);
+
+        limiter.onError();
+        assertEquals(50, limit(limiter));
+
+        Thread.sleep(LATENCY_THRESHOLD_MS * 2);
+        limiter.onAck(SLOW_ACK_NANOS);
+        assertEquals(25, limit(limiter));
+        assertEquals(2L, limiter.getStats().get("decreases"));
+    }
+
+    @Test
+    void decreasesAtMostOncePerLatencyThreshold() {
+        AdaptiveSendLimiter limiter = limiter(100);
+
+        limiter.onError();
+        limiter.onError();
+        limiter.onAck(SLOW_ACK_NANOS);
+
+        assertEquals(50, limit(limiter));
+        assertEquals(1L, limiter.getStats().get("decreases"));
+    }
+
+    @Test
+    void decreaseStopsAtMinLimit() throws InterruptedException {
+        AdaptiveSendLimiter limiter = limiter(10);
+
+        limiter.onError();
+        Thread.sleep(LATENCY_THRESHOLD_MS * 2);
+        limiter.onError();
+
+        assertEquals(4, limit(limiter));
+    }
+
+    @Test
+    void disabledLimiterAcceptsEverything() {
+        AdaptiveSendLimiter limiter = limiter(1);
+        ReflectionTestUtils.setField(limiter, "enabled", false);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        limiter.onError();
+
+        assertEquals(1, limit(limiter));
+        assertEquals(0, limiter.getStats().get("inFlight"));
+    }
+
+    private static AdaptiveSendLimiter limiter(int initialLimit) {
+        AdaptiveSendLimiter limiter = new AdaptiveSendLimiter(initialLimit);
+        ReflectionTestUtils.setField(limiter, "enabled", true);
+        ReflectionTestUtils.setField(limiter, "minLimit", 4);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 10_000);
+        ReflectionTestUtils.setField(limiter, "latencyThresholdMs", LATENCY_THRESHOLD_MS);
+        ReflectionTestUtils.setField(limiter, "backoffRatio", 0.5);
+        return limiter;
+    }
+
+    private static int limit(AdaptiveSendLimiter limiter) {
+        return (Integer) limiter.getStats().get("limit");
+    }
+}
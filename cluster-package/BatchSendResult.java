@@ -0,0 +1,64 @@
+package com.example.producer.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Data
+@NoArgsConstructor
+public class BatchSendResult {
+
+    private int total;
+    private int succeeded;
+    private int failed;
+    private Map<Integer, PartitionResult> partitions = new TreeMap<>();
+    private List<String> failedMessageIds = new ArrayList<>();
+
+    public void recordSuccess(int partition, long offset) {
+        total++;
+        succeeded++;
+        partitions.computeIfAbsent(partition, p -> new PartitionResult()).record(offset);
+    }
+
+    public void recordFailure(String messageId) {
+        total++;
+        failed++;
+        failedMessageIds.add(messageId);
+    }
+
+    // Gộp kết quả của nhiều lô (dùng cho luồng NDJSON)
+    public BatchSendResult merge(BatchSendResult other) {
+        total += other.total;
+        succeeded += other.succeeded;
+        failed += other.failed;
+        other.partitions.forEach((partition, result) ->
+                partitions.merge(partition, result, PartitionResult::merge));
+        failedMessageIds.addAll(other.failedMessageIds);
+        return this;
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class PartitionResult {
+        private int count;
+        private long minOffset = Long.MAX_VALUE;
+        private long maxOffset = -1;
+
+        void record(long offset) {
+            count++;
+            minOffset = Math.min(minOffset, offset);
+            maxOffset = Math.max(maxOffset, offset);
+        }
+
+        PartitionResult merge(PartitionResult other) {
+            count += other.count;
+            minOffset = Math.min(minOffset, other.minOffset);
+            maxOffset = Math.max(maxOffset, other.maxOffset);
+            return this;
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package com.example.consumer.controller;
 
 import com.example.consumer.model.Message;
-import com.example.consumer.service.KafkaClusterConsumerService;
+import com.example.consumer.service.ClusterTopologyMonitor;
+import com.example.consumer.service.HighAvailabilityConsumerService;
+import com.example.consumer.service.MessageChangeFeed;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -18,19 +23,34 @@ import java.util.Map;
 @Profile("cluster")
 public class ClusterMessageController {
 
-    private final KafkaClusterConsumerService consumerService;
+    // Các truy vấn đọc từ ReceivedMessageStore có chỉ mục của HighAvailabilityConsumerService
+    private final HighAvailabilityConsumerService haConsumerService;
+    private final MessageChangeFeed changeFeed;
+    private final ClusterTopologyMonitor topologyMonitor;
 
     @GetMapping
     public ResponseEntity<List<Message>> getAllMessages() {
         log.info("Retrieving all received messages from cluster");
-        List<Message> messages = consumerService.getAllReceivedMessages();
+        List<Message> messages = haConsumerService.getAllReceivedMessages();
         return ResponseEntity.ok(messages);
     }
     
+    // Luồng SSE chỉ chứa các tin nhắn mới, có thể lọc theo loại: /api/messages/stream?type=DATA
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamMessages(@RequestParam(required = false) Message.MessageType type) {
+        log.info("Opening message stream with type filter: {}", type);
+        try {
+            return ResponseEntity.ok(changeFeed.subscribe(type));
+        } catch (IllegalStateException e) {
+            log.warn("Rejecting message stream: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+    
     @GetMapping("/{id}")
     public ResponseEntity<Message> getMessageById(@PathVariable String id) {
         log.info("Retrieving message with id: {} from cluster", id);
-        Message message = consumerService.getMessageById(id);
+        Message message = haConsumerService.getMessageById(id);
         if (message == null) {
             return ResponseEntity.notFound().build();
         }
@@ -40,26 +60,26 @@ public class ClusterMessageController {
     @GetMapping("/type/{type}")
     public ResponseEntity<List<Message>> getMessagesByType(@PathVariable Message.MessageType type) {
         log.info("Retrieving messages with type: {} from cluster", type);
-        List<Message> messages = consumerService.getMessagesByType(type);
+        List<Message> messages = haConsumerService.getMessagesByType(type);
         return ResponseEntity.ok(messages);
     }
     
     @GetMapping("/stats")
     public ResponseEntity<Map<Message.MessageType, Long>> getMessageStats() {
         log.info("Retrieving message statistics from cluster");
-        Map<Message.MessageType, Long> stats = consumerService.getMessageCountByType();
+        Map<Message.MessageType, Long> stats = haConsumerService.getMessageCountByType();
         return ResponseEntity.ok(stats);
     }
     
     @DeleteMapping
     public ResponseEntity<Void> clearMessages() {
         log.info("Clearing all messages from cluster");
-        consumerService.clearMessages();
+        haConsumerService.clearMessages();
         return ResponseEntity.ok().build();
     }
     
     @GetMapping("/cluster-status")
-    public ResponseEntity<String> getClusterStatus() {
-        return ResponseEntity.ok("Consumer is connected to Kafka cluster with 3 brokers");
+    public ResponseEntity<Map<String, Object>> getClusterStatus() {
+        return ResponseEntity.ok(topologyMonitor.getSnapshot());
     }
 }
@@ -26,6 +26,11 @@ public class HighAvailabilityController {
         return ResponseEntity.ok(health);
     }
     
+    @GetMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> getMetrics() {
+        return ResponseEntity.ok(haConsumerService.getMetrics());
+    }
+    
     @PostMapping("/reset-health")
     public ResponseEntity<String> resetHealth() {
         log.info("Manually resetting consumer health status");
@@ -39,4 +44,23 @@ public class HighAvailabilityController {
         Map<Message.MessageType, Long> stats = haConsumerService.getMessageCountByType();
         return ResponseEntity.ok(stats);
     }
+    
+    // Thống kê theo cửa sổ: mode=sliding (kết thúc tại hiện tại) hoặc tumbling (cửa sổ cố định gần nhất đã kết thúc)
+    @GetMapping("/messages/stats")
+    public ResponseEntity<?> getWindowedStats(
+            @RequestParam(defaultValue = "60000") long windowMs,
+            @RequestParam(defaultValue = "sliding") String mode) {
+        try {
+            return ResponseEntity.ok(haConsumerService.getWindowedStats(windowMs, "tumbling".equalsIgnoreCase(mode)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+    
+    @PostMapping("/dlt/replay")
+    public ResponseEntity<String> replayDeadLetters(@RequestParam(defaultValue = "1000") int max) {
+        log.info("Replaying up to {} messages from dead letter topic", max);
+        int replayed = haConsumerService.replayDeadLetters(max);
+        return ResponseEntity.ok("Replayed " + replayed + " messages from dead letter topic");
+    }
 }
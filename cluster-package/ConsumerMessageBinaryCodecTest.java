@@ -0,0 +1,102 @@
+package com.example.consumer.config;
+
+import com.example.consumer.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageBinaryCodecTest {
+
+    @Test
+    void roundTripPreservesAllFields() {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("inner", "value");
+        nested.put("count", 3);
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("string", "xin chào 😀");
+        data.put("int", -42);
+        data.put("long", Long.MAX_VALUE);
+        data.put("double", 3.25);
+        data.put("decimal", new BigDecimal("12345.6789"));
+        data.put("true", true);
+        data.put("false", false);
+        data.put("null", null);
+        data.put("map", nested);
+        data.put("list", Arrays.asList("a", 1, null));
+        Message message = message("m-1", Message.MessageType.DATA, data);
+        message.setContent("nội dung");
+
+        Message decoded = MessageBinaryCodec.decode(MessageBinaryCodec.encode(message));
+
+        assertEquals("m-1", decoded.getId());
+        assertEquals("nội dung", decoded.getContent());
+        assertEquals(message.getTimestamp(), decoded.getTimestamp());
+        assertEquals(Message.MessageType.DATA, decoded.getType());
+        assertEquals(data, decoded.getAdditionalData());
+    }
+
+    @Test
+    void roundTripKeepsNullFields() {
+        Message message = message("m-1", null, null);
+        message.setContent(null);
+
+        Message decoded = MessageBinaryCodec.decode(MessageBinaryCodec.encode(message));
+
+        assertEquals("m-1", decoded.getId());
+        assertNull(decoded.getContent());
+        assertNull(decoded.getType());
+        assertNull(decoded.getAdditionalData());
+    }
+
+    @Test
+    void roundTripKeepsEmptyAdditionalData() {
+        Message message = message("m-1", Message.MessageType.INFO, new LinkedHashMap<>());
+
+        Message decoded = MessageBinaryCodec.decode(MessageBinaryCodec.encode(message));
+
+        assertEquals(new LinkedHashMap<>(), decoded.getAdditionalData());
+    }
+
+    @Test
+    void rejectsOtherFormatVersions() {
+        byte[] encoded = MessageBinaryCodec.encode(message("m-1", Message.MessageType.DATA, null));
+        encoded[0] = MessageBinaryCodec.VERSION - 1;
+
+        assertThrows(IllegalArgumentException.class, () -> MessageBinaryCodec.decode(encoded));
+    }
+
+    @Test
+    void unsupportedValueTypeFallsBackWithIllegalArgument() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("unsupported", new Object());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> MessageBinaryCodec.encode(message("m-1", Message.MessageType.DATA, data)));
+
+        // Bộ đệm của thread được đặt lại cho tin nhắn tiếp theo
+        Message decoded = MessageBinaryCodec.decode(MessageBinaryCodec.encode(message("m-2", Message.MessageType.INFO, null)));
+        assertEquals("m-2", decoded.getId());
+    }
+
+    @Test
+    void rejectsUnknownFormatVersion() {
+        assertThrows(IllegalArgumentException.class, () -> MessageBinaryCodec.decode(new byte[]{9}));
+    }
+
+    private static Message message(String id, Message.MessageType type, Map<String, Object> data) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent("content " + id);
+        message.setTimestamp(1_700_000_000_000L);
+        message.setType(type);
+        message.setAdditionalData(data);
+        return message;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.consumer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Giới hạn log theo từng tin nhắn ở mức INFO.
+ * Chế độ SAMPLED chỉ cho phép tối đa max-per-second dòng log mỗi giây và thay phần còn lại
+ * bằng một dòng tổng hợp định kỳ cho mỗi partition.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class MessageLogSampler {
+
+    public enum Mode {
+        FULL,     // Log mọi tin nhắn như trước
+        SAMPLED   // Log có giới hạn tốc độ + tổng hợp theo partition
+    }
+
+    @Value("${kafka.consumer.logging.mode:FULL}")
+    private Mode mode;
+
+    @Value("${kafka.consumer.logging.max-per-second:10}")
+    private int maxPerSecond;
+
+    @Value("${kafka.consumer.logging.summary-interval-ms:10000}")
+    private long summaryIntervalMs;
+
+    private final AtomicLong currentSecond = new AtomicLong();
+    private final AtomicInteger loggedThisSecond = new AtomicInteger();
+    private final LongAdder suppressedLines = new LongAdder();
+    private final Map<Integer, LongAdder> receivedPerPartition = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService summaryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "consumer-log-summary");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void start() {
+        if (mode == Mode.SAMPLED && summaryIntervalMs > 0) {
+            summaryScheduler.scheduleAtFixedRate(this::logSummary, summaryIntervalMs, summaryIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Trả về true nếu dòng log của tin nhắn hiện tại nên được ghi.
+     */
+    public boolean shouldLog() {
+        if (mode == Mode.FULL) {
+            return true;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        long current = currentSecond.get();
+        if (second != current && currentSecond.compareAndSet(current, second)) {
+            loggedThisSecond.set(0);
+        }
+        if (loggedThisSecond.incrementAndGet() <= maxPerSecond) {
+            return true;
+        }
+        suppressedLines.increment();
+        return false;
+    }
+
+    // Đếm tin nhắn đã nhận theo partition cho dòng tổng hợp
+    public void record(int partition) {
+        if (mode == Mode.SAMPLED) {
+            receivedPerPartition.computeIfAbsent(partition, p -> new LongAdder()).increment();
+        }
+    }
+
+    private void logSummary() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        receivedPerPartition.forEach((partition, count) -> counts.put(partition, count.sumThenReset()));
+        double seconds = summaryIntervalMs / 1000.0;
+        counts.forEach((partition, count) -> {
+            if (count > 0) {
+                log.info("summary interval_ms={} partition={} received={} rate_per_sec={}",
+                        summaryIntervalMs, partition, count, String.format("%.1f", count / seconds));
+            }
+        });
+        long suppressed = suppressedLines.sumThenReset();
+        if (suppressed > 0) {
+            log.info("summary interval_ms={} suppressed_log_lines={}", summaryIntervalMs, suppressed);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summaryScheduler.shutdownNow();
+    }
+}
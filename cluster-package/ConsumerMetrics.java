@@ -0,0 +1,178 @@
+package com.example.consumer.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.header.Header;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Số liệu trên đường nhận của consumer: bộ đếm LongAdder không khóa, độ trễ end-to-end tính từ header
+ * "timestamp" của producer, thời gian xử lý, thông lượng theo partition và lag lấy từ metrics của Kafka client.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class ConsumerMetrics {
+
+    private static final String TIMESTAMP_HEADER = "timestamp";
+    private static final String LAG_METRIC = "records-lag";
+    private static final String FETCH_METRIC_GROUP = "consumer-fetch-manager-metrics";
+
+    private final MeterRegistry registry;
+    private final KafkaListenerEndpointRegistry listenerRegistry;
+    private final Timer endToEndLatency;
+    private final Timer processingTime;
+
+    private final LongAdder receivedRecords = new LongAdder();
+    private final LongAdder processedMessages = new LongAdder();
+    private final LongAdder duplicateMessages = new LongAdder();
+    private final LongAdder filteredMessages = new LongAdder();
+    private final LongAdder failedMessages = new LongAdder();
+    private final Map<String, LongAdder> receivedPerPartition = new ConcurrentHashMap<>();
+
+    public ConsumerMetrics(MeterRegistry registry, KafkaListenerEndpointRegistry listenerRegistry) {
+        this.registry = registry;
+        this.listenerRegistry = listenerRegistry;
+        this.endToEndLatency = Timer.builder("kafka.consumer.end-to-end.latency")
+                .description("Time from producer send to consumer receive, based on the timestamp header")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        this.processingTime = Timer.builder("kafka.consumer.processing.time")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        counter("kafka.consumer.records.received", receivedRecords);
+        counter("kafka.consumer.messages.processed", processedMessages);
+        counter("kafka.consumer.messages.duplicate", duplicateMessages);
+        counter("kafka.consumer.messages.filtered", filteredMessages);
+        counter("kafka.consumer.messages.failed", failedMessages);
+        Gauge.builder("kafka.consumer.lag.total", this, metrics -> metrics.totalLag()).register(registry);
+    }
+
+    public void recordReceived(ConsumerRecord<?, ?> record) {
+        receivedRecords.increment();
+        receivedPerPartition.computeIfAbsent(record.topic() + "-" + record.partition(), this::partitionCounter)
+                .increment();
+        Header sentAt = record.headers().lastHeader(TIMESTAMP_HEADER);
+        if (sentAt != null) {
+            try {
+                long latencyMs = System.currentTimeMillis() - Long.parseLong(new String(sentAt.value(), StandardCharsets.UTF_8));
+                // Lệch đồng hồ giữa các máy có thể cho giá trị âm
+                endToEndLatency.record(Math.max(0, latencyMs), TimeUnit.MILLISECONDS);
+            } catch (NumberFormatException e) {
+                log.debug("Invalid timestamp header on record at partition: {}, offset: {}", record.partition(), record.offset());
+            }
+        }
+    }
+
+    public void recordProcessed(long processingNanos) {
+        processedMessages.increment();
+        processingTime.record(processingNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordDuplicate() {
+        duplicateMessages.increment();
+    }
+
+    public void recordFiltered() {
+        filteredMessages.increment();
+    }
+
+    public void recordFailure() {
+        failedMessages.increment();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long received = receivedRecords.sum();
+        metrics.put("receivedRecords", received);
+        metrics.put("processedMessages", processedMessages.sum());
+        metrics.put("duplicateMessages", duplicateMessages.sum());
+        metrics.put("filteredMessages", filteredMessages.sum());
+        metrics.put("failedMessages", failedMessages.sum());
+        metrics.put("dedupHitRate", received == 0 ? 0.0 : (double) duplicateMessages.sum() / received);
+        metrics.put("endToEndLatencyMs", latencySnapshot(endToEndLatency));
+        metrics.put("processingTimeMs", latencySnapshot(processingTime));
+
+        Map<String, Long> perPartition = new TreeMap<>();
+        receivedPerPartition.forEach((partition, count) -> perPartition.put(partition, count.sum()));
+        metrics.put("receivedPerPartition", perPartition);
+        metrics.put("lagPerPartition", lagPerPartition());
+        return metrics;
+    }
+
+    /**
+     * Lag hiện tại theo "topic-partition", lấy từ metric records-lag của các consumer đang chạy.
+     */
+    public Map<String, Long> lagPerPartition() {
+        Map<String, Long> lag = new TreeMap<>();
+        for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+            if (!container.isRunning()) {
+                continue;
+            }
+            for (Map<MetricName, ? extends Metric> clientMetrics : container.metrics().values()) {
+                clientMetrics.forEach((name, metric) -> {
+                    if (!LAG_METRIC.equals(name.name()) || !FETCH_METRIC_GROUP.equals(name.group())
+                            || !name.tags().containsKey("partition")) {
+                        return;
+                    }
+                    Object value = metric.metricValue();
+                    if (value instanceof Number && !Double.isNaN(((Number) value).doubleValue())) {
+                        lag.merge(name.tags().get("topic") + "-" + name.tags().get("partition"),
+                                ((Number) value).longValue(), Long::sum);
+                    }
+                });
+            }
+        }
+        return lag;
+    }
+
+    private double totalLag() {
+        return lagPerPartition().values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    static Map<String, Object> latencySnapshot(Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", snapshot.count());
+        latency.put("mean", snapshot.mean(TimeUnit.MILLISECONDS));
+        latency.put("max", snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            String digits = String.valueOf(Math.round(percentile.percentile() * 1000));
+            // 0.5 -> "p50", 0.99 -> "p99", 0.999 -> "p999"
+            latency.put("p" + (digits.endsWith("0") ? digits.substring(0, digits.length() - 1) : digits),
+                    percentile.value(TimeUnit.MILLISECONDS));
+        }
+        return latency;
+    }
+
+    private LongAdder partitionCounter(String topicPartition) {
+        LongAdder counter = new LongAdder();
+        FunctionCounter.builder("kafka.consumer.partition.received", counter, LongAdder::sum)
+                .tag("partition", topicPartition)
+                .register(registry);
+        return counter;
+    }
+
+    private void counter(String name, LongAdder adder) {
+        FunctionCounter.builder(name, adder, LongAdder::sum).register(registry);
+    }
+}
@@ -0,0 +1,338 @@
+package com.example.consumer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chuyển trạng thái chống trùng lặp theo partition khi rebalance (kafka.consumer.rebalance.handoff.enabled).
+ * Khi partition bị thu hồi, các id đã xử lý gần đây của partition đó được ghi vào topic compacted "-dedup-state";
+ * một reader chạy nền đọc liên tục topic này vào bộ nhớ, nên consumer nhận partition chỉ cần lấy các id
+ * từ bản sao cục bộ và đưa vào chỉ mục chống trùng lặp trước khi xử lý record đầu tiên.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class DedupStateHandoff implements ConsumerAwareRebalanceListener {
+
+    public static final String STATE_TOPIC_SUFFIX = "-dedup-state";
+    private static final long IO_TIMEOUT_MS = 10_000;
+    private static final long RETRY_DELAY_MS = 1_000;
+
+    private final MessageDedupIndex processedMessageIds;
+    private final KafkaTemplate<String, String> handoffKafkaTemplate;
+    private final ConsumerFactory<String, String> handoffConsumerFactory;
+
+    @Value("${kafka.topic.name}")
+    private String topicName;
+
+    @Value("${kafka.consumer.rebalance.handoff.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.consumer.rebalance.handoff.ids-per-partition:10000}")
+    private int idsPerPartition;
+
+    // Các id đã xử lý gần đây theo partition của topic chính
+    private final Map<Integer, RecentIds> recentIds = new ConcurrentHashMap<>();
+    // Partition đã bị thu hồi trong rebalance hiện tại theo từng consumer, chờ xem có được gán lại không.
+    // Listener dùng chung cho mọi consumer của container (concurrency > 1) nên không thể giữ một tập chung
+    private final Map<Consumer<?, ?>, Set<Integer>> revokedPartitions = new ConcurrentHashMap<>();
+    // Consumer trong ứng dụng này đang sở hữu từng partition, để consumer cũ không xóa recentIds của chủ mới
+    private final Map<Integer, Consumer<?, ?>> partitionOwners = new ConcurrentHashMap<>();
+    // Giá trị mới nhất theo key của topic trạng thái và vị trí đã đọc tới của reader
+    private final Map<String, String> handedOffStates = new ConcurrentHashMap<>();
+    private final Map<TopicPartition, Long> readerPositions = new ConcurrentHashMap<>();
+    private final ExecutorService stateReader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "consumer-dedup-state-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Consumer<String, String> reader;
+    private volatile boolean running;
+
+    private final LongAdder publishedStates = new LongAdder();
+    private final LongAdder restoredIds = new LongAdder();
+
+    public DedupStateHandoff(MessageDedupIndex processedMessageIds,
+                             KafkaTemplate<String, String> handoffKafkaTemplate,
+                             ConsumerFactory<String, String> handoffConsumerFactory) {
+        this.processedMessageIds = processedMessageIds;
+        this.handoffKafkaTemplate = handoffKafkaTemplate;
+        this.handoffConsumerFactory = handoffConsumerFactory;
+    }
+
+    public void recordProcessed(ConsumerRecord<?, ?> record, String messageId) {
+        if (enabled && topicName.equals(record.topic())) {
+            recentIds.computeIfAbsent(record.partition(), partition -> new RecentIds(idsPerPartition)).add(messageId);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            running = true;
+            stateReader.execute(this::tailStateTopic);
+        }
+    }
+
+    // Container đã commit các offset đang chờ trước khi gọi phương thức này
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (!enabled) {
+            return;
+        }
+        for (TopicPartition partition : partitions) {
+            if (!topicName.equals(partition.topic())) {
+                continue;
+            }
+            // Giữ lại các id cho tới onPartitionsAssigned: với giao thức eager partition thường được gán lại cho chính consumer này
+            revokedPartitions.computeIfAbsent(consumer, key -> ConcurrentHashMap.newKeySet()).add(partition.partition());
+            RecentIds ids = recentIds.get(partition.partition());
+            if (ids == null) {
+                continue;
+            }
+            try {
+                handoffKafkaTemplate.send(stateTopic(), partition.toString(), String.join("\n", ids.snapshot()))
+                        .get(IO_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                publishedStates.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.warn("Failed to hand off dedup state for {}, the new owner may reprocess recent messages", partition, e);
+            }
+        }
+    }
+
+    // Partition bị mất (không được thu hồi bình thường): consumer khác có thể đã là chủ, không ghi trạng thái cũ
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        Set<Integer> revoked = revokedPartitions.getOrDefault(consumer, Collections.emptySet());
+        partitions.stream()
+                .filter(partition -> topicName.equals(partition.topic()))
+                .forEach(partition -> {
+                    revoked.remove(partition.partition());
+                    release(consumer, partition.partition());
+                });
+    }
+
+    /**
+     * Nạp trạng thái được bàn giao cho các partition mới nhận từ bản sao cục bộ của topic trạng thái.
+     * Partition consumer này vừa sở hữu trước rebalance được bỏ qua vì chỉ mục chống trùng lặp đã có các id của nó.
+     */
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (!enabled) {
+            return;
+        }
+        Set<Integer> previouslyOwned = revokedPartitions.remove(consumer);
+        if (previouslyOwned == null) {
+            previouslyOwned = Collections.emptySet();
+        }
+        Map<String, Integer> wanted = new HashMap<>();
+        Set<Integer> assigned = new HashSet<>();
+        for (TopicPartition partition : partitions) {
+            if (!topicName.equals(partition.topic())) {
+                continue;
+            }
+            assigned.add(partition.partition());
+            partitionOwners.put(partition.partition(), consumer);
+            if (!previouslyOwned.contains(partition.partition()) && !recentIds.containsKey(partition.partition())) {
+                wanted.put(partition.toString(), partition.partition());
+            }
+        }
+        // Partition bị thu hồi và không được gán lại: consumer mới đã nhận trạng thái qua topic
+        for (Integer partition : previouslyOwned) {
+            if (!assigned.contains(partition)) {
+                release(consumer, partition);
+            }
+        }
+        if (wanted.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        boolean caughtUp = awaitStateReader(consumer);
+        int restoredPartitions = 0;
+        for (Map.Entry<String, Integer> entry : wanted.entrySet()) {
+            String value = handedOffStates.get(entry.getKey());
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            List<String> ids = Arrays.asList(value.split("\n"));
+            RecentIds recent = recentIds.computeIfAbsent(entry.getValue(), partition -> new RecentIds(idsPerPartition));
+            for (String id : ids) {
+                processedMessageIds.add(id);
+                recent.add(id);
+            }
+            restoredIds.add(ids.size());
+            restoredPartitions++;
+        }
+        if (!caughtUp) {
+            log.warn("Dedup state reader did not catch up with {} within {} ms, handed-off state may be incomplete",
+                    stateTopic(), IO_TIMEOUT_MS);
+        }
+        log.info("Restored dedup state for {} of {} newly assigned partitions in {} ms",
+                restoredPartitions, wanted.size(), System.currentTimeMillis() - start);
+    }
+
+    // Chỉ xóa các id nếu partition chưa được một consumer khác trong ứng dụng này nhận
+    private void release(Consumer<?, ?> consumer, int partition) {
+        if (partitionOwners.remove(partition, consumer)) {
+            recentIds.remove(partition);
+        }
+    }
+
+    // Chờ reader đọc tới end offset hiện tại của topic trạng thái; thường đã bắt kịp nên chỉ tốn một lần hỏi end offset
+    private boolean awaitStateReader(Consumer<?, ?> consumer) {
+        try {
+            List<TopicPartition> statePartitions = new ArrayList<>();
+            for (PartitionInfo info : consumer.partitionsFor(stateTopic(), Duration.ofMillis(IO_TIMEOUT_MS))) {
+                statePartitions.add(new TopicPartition(info.topic(), info.partition()));
+            }
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(statePartitions, Duration.ofMillis(IO_TIMEOUT_MS));
+            long deadline = System.currentTimeMillis() + IO_TIMEOUT_MS;
+            while (!caughtUp(endOffsets)) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(20);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            log.warn("Failed to read end offsets of dedup state topic {}", stateTopic(), e);
+            return false;
+        }
+    }
+
+    private boolean caughtUp(Map<TopicPartition, Long> endOffsets) {
+        for (Map.Entry<TopicPartition, Long> end : endOffsets.entrySet()) {
+            if (readerPositions.getOrDefault(end.getKey(), 0L) < end.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Một consumer sống lâu đọc liên tục topic compacted vào handedOffStates; thử lại nếu topic chưa sẵn sàng
+    private void tailStateTopic() {
+        while (running) {
+            try (Consumer<String, String> consumer = handoffConsumerFactory.createConsumer(null, "-dedup-handoff")) {
+                reader = consumer;
+                List<TopicPartition> statePartitions = new ArrayList<>();
+                for (PartitionInfo info : consumer.partitionsFor(stateTopic(), Duration.ofMillis(IO_TIMEOUT_MS))) {
+                    statePartitions.add(new TopicPartition(info.topic(), info.partition()));
+                }
+                if (statePartitions.isEmpty()) {
+                    throw new IllegalStateException("No partitions for " + stateTopic());
+                }
+                consumer.assign(statePartitions);
+                consumer.seekToBeginning(statePartitions);
+                while (running) {
+                    for (ConsumerRecord<String, String> record : consumer.poll(Duration.ofMillis(500))) {
+                        if (record.value() == null) {
+                            handedOffStates.remove(record.key());
+                        } else {
+                            handedOffStates.put(record.key(), record.value());
+                        }
+                    }
+                    for (TopicPartition partition : statePartitions) {
+                        readerPositions.put(partition, consumer.position(partition));
+                    }
+                }
+            } catch (WakeupException e) {
+                // Dừng bởi shutdown
+            } catch (Exception e) {
+                if (running) {
+                    log.warn("Dedup state reader for {} failed, retrying in {} ms: {}", stateTopic(), RETRY_DELAY_MS, e.toString());
+                    try {
+                        Thread.sleep(RETRY_DELAY_MS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            } finally {
+                reader = null;
+            }
+        }
+    }
+
+    private String stateTopic() {
+        return topicName + STATE_TOPIC_SUFFIX;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("publishedStates", publishedStates.sum());
+        stats.put("restoredIds", restoredIds.sum());
+        stats.put("handedOffStates", handedOffStates.size());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        Consumer<String, String> current = reader;
+        if (current != null) {
+            current.wakeup();
+        }
+        stateReader.shutdown();
+    }
+
+    // Bộ đệm vòng giữ tối đa capacity id gần nhất của một partition
+    private static final class RecentIds {
+        private final String[] ids;
+        private int next;
+        private int size;
+
+        RecentIds(int capacity) {
+            this.ids = new String[capacity];
+        }
+
+        synchronized void add(String id) {
+            ids[next] = id;
+            next = (next + 1) % ids.length;
+            size = Math.min(size + 1, ids.length);
+        }
+
+        synchronized List<String> snapshot() {
+            List<String> snapshot = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                snapshot.add(ids[Math.floorMod(next - size + i, ids.length)]);
+            }
+            return snapshot;
+        }
+    }
+}
@@ -1,89 +1,253 @@
 package com.example.consumer.service;
 
+import com.example.consumer.config.MessageDeserializer;
 import com.example.consumer.model.Message;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
 import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
 
 @Service
 @Slf4j
+@RequiredArgsConstructor
 @Profile("cluster")
 public class HighAvailabilityConsumerService {
 
-    private final List<Message> receivedMessages = new CopyOnWriteArrayList<>();
-    private final Map<String, Integer> processedMessageIds = new HashMap<>();
+    private final ReceivedMessageStore receivedMessages;
+    private final MessageDedupIndex processedMessageIds;
+    
+    // Xử lý song song theo key trong chế độ batch (kafka.consumer.parallel.workers > 0)
+    private final KeyOrderedProcessor keyOrderedProcessor;
+    
+    // Chuyển tin nhắn lỗi sang retry topic thay vì chặn partition (kafka.consumer.retry-topics.enabled)
+    private final RetryTopicRouter retryTopicRouter;
+    
+    // Lọc trùng lặp / theo loại từ header, trước khi giải mã payload
+    private final RecordPreFilter recordPreFilter;
+    
+    private final ConsumerMetrics metrics;
+    
+    // Giới hạn log theo từng tin nhắn (kafka.consumer.logging.mode)
+    private final MessageLogSampler logSampler;
+    
+    // Đẩy tin nhắn mới tới các client SSE
+    private final MessageChangeFeed changeFeed;
+    
+    // Thống kê theo cửa sổ thời gian, cập nhật tăng dần khi nhận tin nhắn
+    private final WindowedMessageStats windowedStats;
+    
+    // Lưu tin nhắn đã xử lý xuống đĩa để khôi phục nhanh khi khởi động lại (kafka.consumer.journal.enabled)
+    private final MessageJournal messageJournal;
+    
+    // Chuyển các id đã xử lý gần đây sang consumer mới khi partition đổi chủ
+    private final DedupStateHandoff dedupStateHandoff;
+    
+    // Snapshot leader/ISR và lag của consumer group, cập nhật ở nền
+    private final ClusterTopologyMonitor topologyMonitor;
+    
+    // Số lần xử lý lỗi của các tin nhắn đang chờ gửi lại, xóa khi xử lý xong hoặc bỏ qua
+    private final Map<String, Integer> processingAttempts = new ConcurrentHashMap<>();
     private final AtomicBoolean healthy = new AtomicBoolean(true);
-    private long lastMessageTimestamp = System.currentTimeMillis();
+    private volatile long lastMessageTimestamp = System.currentTimeMillis();
     private static final int MAX_PROCESSING_ATTEMPTS = 3;
+    private static final long BATCH_REDELIVERY_DELAY_MS = 1000;
 
     @KafkaListener(
+        id = "ha-record",
         topics = "${kafka.topic.name}", 
         groupId = "${spring.kafka.consumer.group-id}",
-        containerFactory = "clusterKafkaListenerContainerFactory"
+        containerFactory = "clusterKafkaListenerContainerFactory",
+        autoStartup = "#{'${kafka.consumer.listener-mode:record}' == 'record'}"
     )
     public void listen(ConsumerRecord<String, Message> record, Acknowledgment acknowledgment) {
+        if (handleRecord(record)) {
+            // Xác nhận tin nhắn đã được xử lý
+            acknowledgment.acknowledge();
+            log.debug("Message acknowledged at partition: {}, offset: {}", record.partition(), record.offset());
+        }
+    }
+
+    @KafkaListener(
+        id = "ha-batch",
+        topics = "${kafka.topic.name}",
+        groupId = "${spring.kafka.consumer.group-id}",
+        containerFactory = "clusterBatchKafkaListenerContainerFactory",
+        autoStartup = "#{'${kafka.consumer.listener-mode:record}' == 'batch'}"
+    )
+    public void listenBatch(List<ConsumerRecord<String, Message>> records, Acknowledgment acknowledgment) {
+        if (keyOrderedProcessor.isEnabled()) {
+            boolean[] completed = keyOrderedProcessor.process(records, ConsumerRecord::key, this::handleRecord);
+            for (int i = 0; i < completed.length; i++) {
+                if (!completed[i]) {
+                    // Chỉ commit đến offset liên tục thấp nhất đã hoàn tất;
+                    // các record đã xử lý phía sau sẽ bị bỏ qua nhờ chỉ mục chống trùng lặp khi poll lại
+                    acknowledgment.nack(i, Duration.ofMillis(BATCH_REDELIVERY_DELAY_MS));
+                    return;
+                }
+            }
+        } else {
+            for (int i = 0; i < records.size(); i++) {
+                if (!handleRecord(records.get(i))) {
+                    // Commit đến record thành công cuối cùng, các record còn lại sẽ được poll lại
+                    acknowledgment.nack(i, Duration.ofMillis(BATCH_REDELIVERY_DELAY_MS));
+                    return;
+                }
+            }
+        }
+        // Một lần commit cho cả lô
+        acknowledgment.acknowledge();
+        log.debug("Batch of {} messages acknowledged", records.size());
+    }
+
+    // Mỗi tầng retry có container riêng để độ trễ của tầng này không chặn tầng kia
+    @KafkaListener(
+        id = "ha-retry-5s",
+        topics = "${kafka.topic.name}" + RetryTopicRouter.RETRY_5S_SUFFIX,
+        groupId = "${spring.kafka.consumer.group-id}-retry",
+        containerFactory = "clusterKafkaListenerContainerFactory",
+        autoStartup = "${kafka.consumer.retry-topics.enabled:false}"
+    )
+    public void listenRetry5s(ConsumerRecord<String, Message> record, Acknowledgment acknowledgment) {
+        handleRetryRecord(record, acknowledgment);
+    }
+
+    @KafkaListener(
+        id = "ha-retry-1m",
+        topics = "${kafka.topic.name}" + RetryTopicRouter.RETRY_1M_SUFFIX,
+        groupId = "${spring.kafka.consumer.group-id}-retry",
+        containerFactory = "clusterKafkaListenerContainerFactory",
+        autoStartup = "${kafka.consumer.retry-topics.enabled:false}"
+    )
+    public void listenRetry1m(ConsumerRecord<String, Message> record, Acknowledgment acknowledgment) {
+        handleRetryRecord(record, acknowledgment);
+    }
+
+    private void handleRetryRecord(ConsumerRecord<String, Message> record, Acknowledgment acknowledgment) {
+        long remainingMs = retryTopicRouter.remainingDelayMs(record);
+        if (remainingMs > 0) {
+            // Chưa đến hạn: seek lại và tạm dừng; các record phía sau trong tầng này đều đến hạn muộn hơn
+            acknowledgment.nack(Duration.ofMillis(remainingMs));
+            return;
+        }
+        if (handleRecord(record)) {
+            acknowledgment.acknowledge();
+        } else {
+            acknowledgment.nack(Duration.ofMillis(BATCH_REDELIVERY_DELAY_MS));
+        }
+    }
+
+    /**
+     * Xử lý một record. Trả về true nếu có thể xác nhận offset (đã xử lý, bị trùng lặp
+     * hoặc đã hết số lần thử), false nếu cần Kafka gửi lại.
+     */
+    private boolean handleRecord(ConsumerRecord<String, Message> record) {
+        metrics.recordReceived(record);
         Message message = record.value();
+        if (message == null) {
+            // Payload không được giải mã vì đã bị bỏ qua dựa trên header (trùng lặp hoặc bị lọc)
+            Header reason = record.headers().lastHeader(MessageDeserializer.SKIP_REASON_HEADER);
+            String skipReason = reason == null ? "empty value" : new String(reason.value(), StandardCharsets.UTF_8);
+            log.debug("Skipping record at partition: {}, offset: {}, reason: {}", record.partition(), record.offset(),
+                    skipReason);
+            if (RecordPreFilter.REASON_DUPLICATE.equals(skipReason)) {
+                metrics.recordDuplicate();
+            } else if (RecordPreFilter.REASON_FILTERED.equals(skipReason)) {
+                metrics.recordFiltered();
+            }
+            lastMessageTimestamp = System.currentTimeMillis();
+            return true;
+        }
         String messageId = message.getId();
         
         try {
-            log.info("Received message from cluster: {} on partition: {}", message, record.partition());
+            logSampler.record(record.partition());
+            // Một quyết định lấy mẫu cho mọi dòng log của tin nhắn này
+            boolean logDetails = logSampler.shouldLog();
+            if (logDetails) {
+                log.info("Received message from cluster: {} on partition: {}", message, record.partition());
+            }
             lastMessageTimestamp = System.currentTimeMillis();
             
             // Kiểm tra xem tin nhắn đã được xử lý trước đó chưa
-            if (processedMessageIds.containsKey(messageId)) {
-                log.warn("Duplicate message detected: {}, already processed", messageId);
-                acknowledgment.acknowledge();
-                return;
+            if (processedMessageIds.contains(messageId)) {
+                if (logDetails) {
+                    log.warn("Duplicate message detected: {}, already processed", messageId);
+                }
+                metrics.recordDuplicate();
+                return true;
+            }
+            
+            if (!recordPreFilter.accepts(message.getType())) {
+                log.debug("Message {} of type {} filtered out", messageId, message.getType());
+                metrics.recordFiltered();
+                return true;
             }
             
             // Xử lý tin nhắn
-            processMessage(message);
+            long processingStart = System.nanoTime();
+            processMessage(message, logDetails);
+            metrics.recordProcessed(System.nanoTime() - processingStart);
             
             // Đánh dấu tin nhắn đã được xử lý
-            processedMessageIds.put(messageId, 1);
+            processedMessageIds.add(messageId);
+            dedupStateHandoff.recordProcessed(record, messageId);
+            processingAttempts.remove(messageId);
             receivedMessages.add(message);
-            
-            // Xác nhận tin nhắn đã được xử lý
-            acknowledgment.acknowledge();
-            log.debug("Message acknowledged: {}", messageId);
-            
-            // Duy trì kích thước của map processedMessageIds
-            if (processedMessageIds.size() > 10000) {
-                cleanupProcessedMessages();
-            }
+            messageJournal.append(message, record.topic(), record.partition(), record.offset());
+            windowedStats.record(message.getType(), record.partition());
+            changeFeed.publish(message);
+            return true;
             
         } catch (Exception e) {
             log.error("Error processing message: {}", message, e);
+            metrics.recordFailure();
+            
+            if (retryTopicRouter.isEnabled()) {
+                // Ghi sang retry topic / DLT rồi commit để partition tiếp tục chạy
+                RetryTopicRouter.RouteResult result = retryTopicRouter.route(record, e, MAX_PROCESSING_ATTEMPTS);
+                if (result == RetryTopicRouter.RouteResult.DEAD_LETTER) {
+                    healthy.set(false);
+                }
+                return result != RetryTopicRouter.RouteResult.FAILED;
+            }
             
             // Kiểm tra số lần thử xử lý tin nhắn
-            int attempts = processedMessageIds.getOrDefault(messageId, 0) + 1;
-            processedMessageIds.put(messageId, attempts);
+            int attempts = processingAttempts.merge(messageId, 1, Integer::sum);
             
             if (attempts >= MAX_PROCESSING_ATTEMPTS) {
+                processingAttempts.remove(messageId);
                 log.error("Max processing attempts reached for message: {}, acknowledging to prevent redelivery", messageId);
-                acknowledgment.acknowledge();
                 healthy.set(false);
+                return true;
             } else {
                 log.warn("Will retry processing message: {}, attempt: {}/{}", messageId, attempts, MAX_PROCESSING_ATTEMPTS);
                 // Không xác nhận để Kafka gửi lại tin nhắn
+                return false;
             }
         }
     }
 
-    private void processMessage(Message message) {
+    void processMessage(Message message) {
+        processMessage(message, logSampler.shouldLog());
+    }
+    
+    private void processMessage(Message message, boolean logDetails) {
         // Mô phỏng xử lý tin nhắn
-        log.info("Processing message: {}", message.getId());
+        if (logDetails) {
+            log.info("Processing message: {}", message.getId());
+        }
         
         // Mô phỏng lỗi ngẫu nhiên để kiểm tra cơ chế retry
         if (Math.random() < 0.05) { // 5% khả năng xảy ra lỗi
@@ -91,31 +255,30 @@ public class HighAvailabilityConsumerService {
         }
     }
     
-    private void cleanupProcessedMessages() {
-        log.info("Cleaning up processed message IDs map, current size: {}", processedMessageIds.size());
-        // Giữ lại 5000 tin nhắn gần nhất
-        if (processedMessageIds.size() > 5000) {
-            List<String> keysToRemove = new ArrayList<>(processedMessageIds.keySet()).subList(0, processedMessageIds.size() - 5000);
-            keysToRemove.forEach(processedMessageIds::remove);
-            log.info("Cleaned up processed message IDs map, new size: {}", processedMessageIds.size());
+    // Gọi bởi TransactionalMessageProcessor sau khi transaction của một lô đã commit
+    void onTransactionCommitted(List<ConsumerRecord<String, Message>> processed, int deadLettered) {
+        lastMessageTimestamp = System.currentTimeMillis();
+        for (ConsumerRecord<String, Message> record : processed) {
+            receivedMessages.add(record.value());
+            messageJournal.append(record.value(), record.topic(), record.partition(), record.offset());
+            windowedStats.record(record.value().getType(), record.partition());
+            changeFeed.publish(record.value());
+        }
+        if (deadLettered > 0) {
+            healthy.set(false);
         }
     }
-
+    
     public List<Message> getAllReceivedMessages() {
-        return new ArrayList<>(receivedMessages);
+        return receivedMessages.getAll();
     }
     
     public List<Message> getMessagesByType(Message.MessageType type) {
-        return receivedMessages.stream()
-                .filter(message -> type.equals(message.getType()))
-                .collect(Collectors.toList());
+        return receivedMessages.getByType(type);
     }
     
     public Message getMessageById(String id) {
-        return receivedMessages.stream()
-                .filter(message -> id.equals(message.getId()))
-                .findFirst()
-                .orElse(null);
+        return receivedMessages.getById(id);
     }
     
     public void clearMessages() {
@@ -123,17 +286,29 @@ public class HighAvailabilityConsumerService {
     }
     
     public Map<Message.MessageType, Long> getMessageCountByType() {
-        return receivedMessages.stream()
-                .collect(Collectors.groupingBy(
-                        Message::getType, 
-                        Collectors.counting()));
+        return receivedMessages.countByType();
+    }
+    
+    public Map<String, Object> getWindowedStats(long windowMs, boolean tumbling) {
+        return tumbling ? windowedStats.tumbling(windowMs) : windowedStats.sliding(windowMs);
     }
     
     public Map<String, Object> getConsumerHealth() {
         Map<String, Object> health = new HashMap<>();
-        health.put("healthy", healthy.get());
+        // Partition mất leader được phát hiện sau một lần làm mới topology, không cần chờ xử lý thất bại
+        health.put("healthy", healthy.get() && topologyMonitor.isReadable());
+        health.put("topology", topologyMonitor.getSnapshot());
         health.put("processedMessageCount", processedMessageIds.size());
+        health.put("dedupIndex", processedMessageIds.getStats());
+        health.put("retriedMessages", retryTopicRouter.getRetriedMessages());
+        health.put("deadLetteredMessages", retryTopicRouter.getDeadLetteredMessages());
+        health.put("skippedDuplicatesBeforeDecode", recordPreFilter.getSkippedDuplicates());
+        health.put("skippedFilteredBeforeDecode", recordPreFilter.getSkippedFiltered());
         health.put("receivedMessageCount", receivedMessages.size());
+        health.put("receivedMessageCapacity", receivedMessages.capacity());
+        health.put("changeFeed", changeFeed.getStats());
+        health.put("journal", messageJournal.getStats());
+        health.put("rebalanceHandoff", dedupStateHandoff.getStats());
         health.put("lastMessageReceivedMs", System.currentTimeMillis() - lastMessageTimestamp);
         
         // Kiểm tra xem consumer có đang nhận tin nhắn không
@@ -143,6 +318,18 @@ public class HighAvailabilityConsumerService {
         return health;
     }
     
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> result = metrics.snapshot();
+        result.put("retriedMessages", retryTopicRouter.getRetriedMessages());
+        result.put("deadLetteredMessages", retryTopicRouter.getDeadLetteredMessages());
+        result.put("dedupIndex", processedMessageIds.getStats());
+        return result;
+    }
+    
+    public int replayDeadLetters(int maxMessages) {
+        return retryTopicRouter.replayDeadLetters(maxMessages);
+    }
+    
     public void resetHealth() {
         healthy.set(true);
         log.info("Consumer health status reset to healthy");
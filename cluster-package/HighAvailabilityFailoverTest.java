@@ -0,0 +1,214 @@
+package com.example.producer.service;
+
+import com.example.producer.config.KafkaClusterProducerConfig;
+import com.example.producer.model.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Gửi tải đều qua HighAvailabilityProducerService tới cụm 3 broker nhúng, dừng leader của một
+ * partition giữa chừng rồi đối chiếu những gì đã ghi vào topic: không mất, không trùng,
+ * và partition đó nhận xác nhận trở lại trong thời gian cho phép.
+ */
+@Slf4j
+@SpringJUnitConfig({
+        KafkaClusterProducerConfig.class,
+        HighAvailabilityProducerService.class,
+        ProducerRetryScheduler.class,
+        PendingMessageStore.class,
+        MessageSpillLog.class,
+        ProducerMetrics.class,
+        MessageLogSampler.class,
+        MessageKeyResolver.class,
+        PartitionLoadTracker.class,
+        AdaptiveSendLimiter.class,
+        ClusterTopologyMonitor.class,
+        MessageCoalescer.class,
+        HighAvailabilityFailoverTest.Config.class
+})
+@ActiveProfiles("cluster")
+@EmbeddedKafka(count = 3, partitions = 3, topics = HighAvailabilityFailoverTest.TOPIC,
+        brokerProperties = {"min.insync.replicas=2", "unclean.leader.election.enable=false"})
+@TestPropertySource(properties = {
+        "spring.kafka.producer.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.producer.acks=all",
+        "spring.kafka.producer.retries=2147483647",
+        "kafka.topic.name=" + HighAvailabilityFailoverTest.TOPIC,
+        "kafka.producer.spill.directory=target/failover-test-spill"
+})
+class HighAvailabilityFailoverTest {
+
+    static final String TOPIC = "failover-test";
+
+    private static final int MESSAGES = 3_000;
+    private static final int RATE_PER_SECOND = 500;
+    private static final int FAILOVER_AT = 1_000;
+    private static final int FAILOVER_PARTITION = 0;
+    private static final long MAX_RECOVERY_MS = 15_000;
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        ObjectMapper objectMapper() {
+            return new ObjectMapper();
+        }
+    }
+
+    @Autowired
+    private EmbeddedKafkaBroker broker;
+
+    @Autowired
+    private HighAvailabilityProducerService producerService;
+
+    @Test
+    void leaderFailoverLosesAndDuplicatesNothing() throws Exception {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / RATE_PER_SECOND;
+        List<String> sentIds = new ArrayList<>(MESSAGES);
+        List<CompletableFuture<RecordMetadata>> deliveries = new ArrayList<>(MESSAGES);
+        long[] latencies = new long[MESSAGES];
+        AtomicLong failoverAt = new AtomicLong();
+        AtomicLong recoveredAt = new AtomicLong();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            if (i == FAILOVER_AT) {
+                int leader = leaderOf(FAILOVER_PARTITION);
+                broker.getKafkaServer(leader).shutdown();
+                failoverAt.set(System.nanoTime());
+                log.info("Stopped broker {}, leader of partition {}", leader, FAILOVER_PARTITION);
+            }
+            long wait = start + i * intervalNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Message message = Message.builder()
+                    .id(UUID.randomUUID().toString())
+                    .content("failover")
+                    .timestamp(System.currentTimeMillis())
+                    .type(Message.MessageType.DATA)
+                    .build();
+            sentIds.add(message.getId());
+
+            int index = i;
+            long sentAt = System.nanoTime();
+            deliveries.add(producerService.sendMessage(message).whenComplete((metadata, ex) -> {
+                long now = System.nanoTime();
+                latencies[index] = now - sentAt;
+                // Xác nhận đầu tiên của partition bị mất leader, cho tin nhắn gửi sau khi dừng broker
+                if (ex == null && metadata.partition() == FAILOVER_PARTITION && index >= FAILOVER_AT) {
+                    recoveredAt.compareAndSet(0, now);
+                }
+            }));
+        }
+        // Mọi tin nhắn phải được broker xác nhận, không tin nhắn nào bị chuyển xuống đĩa
+        CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[0])).get(2, TimeUnit.MINUTES);
+        long durationNanos = System.nanoTime() - start;
+
+        Map<String, Integer> received = readMessageIds();
+        Set<String> missing = new HashSet<>(sentIds);
+        missing.removeAll(received.keySet());
+        long duplicates = received.values().stream().filter(count -> count > 1).count();
+        long recoveryMs = TimeUnit.NANOSECONDS.toMillis(recoveredAt.get() - failoverAt.get());
+
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        log.info("Sent {} messages in {} ms ({} msg/s), ack latency p50={} ms p99={} ms p999={} ms, recovery {} ms",
+                MESSAGES, TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                (long) (MESSAGES / (durationNanos / 1e9)),
+                percentileMs(sorted, 0.5), percentileMs(sorted, 0.99), percentileMs(sorted, 0.999), recoveryMs);
+
+        assertEquals(Collections.emptySet(), missing, "messages lost during failover");
+        assertEquals(0, duplicates, "messages written more than once during failover");
+        assertEquals(MESSAGES, received.size());
+        assertNotEquals(0, recoveredAt.get(), "partition " + FAILOVER_PARTITION + " never recovered");
+        assertTrue(recoveryMs <= MAX_RECOVERY_MS, "recovery took " + recoveryMs + " ms");
+    }
+
+    private int leaderOf(int partition) throws Exception {
+        Map<String, Object> props = new HashMap<>();
+        props.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        try (AdminClient admin = AdminClient.create(props)) {
+            return admin.describeTopics(Collections.singleton(TOPIC)).all().get(10, TimeUnit.SECONDS)
+                    .get(TOPIC).partitions().get(partition).leader().id();
+        }
+    }
+
+    // Đếm số lần mỗi message-id xuất hiện trong topic, đọc từ đầu bằng một consumer độc lập
+    private Map<String, Integer> readMessageIds() {
+        Map<String, Object> props = KafkaTestUtils.consumerProps("failover-verifier", "false", broker);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        Map<String, Integer> counts = new HashMap<>();
+        try (KafkaConsumer<String, String> consumer =
+                     new KafkaConsumer<>(props, new StringDeserializer(), new StringDeserializer())) {
+            List<TopicPartition> partitions = new ArrayList<>();
+            consumer.partitionsFor(TOPIC).forEach(info -> partitions.add(new TopicPartition(TOPIC, info.partition())));
+            consumer.assign(partitions);
+            consumer.seekToBeginning(partitions);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+            long deadline = System.currentTimeMillis() + 60_000;
+            while (!reachedEnd(consumer, endOffsets) && System.currentTimeMillis() < deadline) {
+                for (ConsumerRecord<String, String> record : consumer.poll(Duration.ofMillis(500))) {
+                    Header id = record.headers().lastHeader("message-id");
+                    counts.merge(new String(id.value(), StandardCharsets.UTF_8), 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static boolean reachedEnd(KafkaConsumer<?, ?> consumer, Map<TopicPartition, Long> endOffsets) {
+        return endOffsets.entrySet().stream().allMatch(end -> consumer.position(end.getKey()) >= end.getValue());
+    }
+
+    private static double percentileMs(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
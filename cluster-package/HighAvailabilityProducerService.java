@@ -1,25 +1,35 @@
 package com.example.producer.service;
 
+import com.example.producer.model.BatchSendResult;
 import com.example.producer.model.Message;
+import com.example.producer.model.SendAck;
+import com.example.producer.service.PendingMessageStore.PendingRecord;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.internals.RecordHeader;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
@@ -28,12 +38,31 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class HighAvailabilityProducerService {
 
     private final KafkaTemplate<String, Message> clusterKafkaTemplate;
+    private final ProducerRetryScheduler retryScheduler;
     
-    // Lưu trữ tin nhắn đã gửi để có thể gửi lại nếu cần
-    private final Map<String, Message> pendingMessages = new ConcurrentHashMap<>();
+    // Lưu trữ tin nhắn đã gửi cùng số lần thử lại, giới hạn theo dung lượng bộ nhớ
+    private final PendingMessageStore pendingMessages;
     
-    // Theo dõi số lần thử lại cho mỗi tin nhắn
-    private final Map<String, AtomicInteger> retryCount = new ConcurrentHashMap<>();
+    // Nhật ký trên đĩa cho các tin nhắn không gửi được, để không mất dữ liệu khi khởi động lại
+    private final MessageSpillLog spillLog;
+    
+    private final ProducerMetrics metrics;
+    
+    // Giới hạn log theo từng tin nhắn (kafka.producer.logging.mode)
+    private final MessageLogSampler logSampler;
+    
+    // Chọn key (và do đó partition) cho từng tin nhắn, theo dõi độ lệch tải giữa các partition
+    private final MessageKeyResolver keyResolver;
+    private final PartitionLoadTracker partitionLoad;
+    
+    // Giới hạn số tin nhắn đang gửi theo độ trễ và lỗi từ broker (kafka.producer.adaptive.enabled)
+    private final AdaptiveSendLimiter sendLimiter;
+    
+    // Snapshot leader/ISR của topic, cập nhật ở nền
+    private final ClusterTopologyMonitor topologyMonitor;
+    
+    // Gộp các tin nhắn DATA cùng key trước khi gửi (kafka.producer.coalescing.enabled)
+    private final MessageCoalescer coalescer;
     
     // Số lần thử lại tối đa
     private static final int MAX_RETRIES = 5;
@@ -41,7 +70,84 @@ public class HighAvailabilityProducerService {
     @Value("${kafka.topic.name}")
     private String topicName;
 
-    public void sendMessage(Message message) {
+    // Thời gian tối đa chờ broker xác nhận trước khi trả lời client (kết quả gửi khi đó chưa xác định)
+    @Value("${kafka.producer.ingest.ack-timeout-ms:30000}")
+    private long ackTimeoutMs;
+
+    public CompletableFuture<RecordMetadata> sendMessage(Message message) {
+        return send(message, true);
+    }
+
+    /**
+     * Như sendMessage nhưng không bao giờ chờ bộ nhớ chờ: khi hết ngân sách, kể cả với chính sách BLOCK,
+     * ProducerBackpressureException được ném ngay để người gọi giữ lại tin nhắn.
+     */
+    public CompletableFuture<RecordMetadata> trySendMessage(Message message) {
+        return send(message, false);
+    }
+
+    private CompletableFuture<RecordMetadata> send(Message message, boolean mayBlock) {
+        if (!sendLimiter.tryAcquire()) {
+            throw new ProducerRateLimitException("In-flight send limit reached, cluster is at capacity");
+        }
+        PendingRecord pending;
+        try {
+            pending = enqueue(message, mayBlock);
+        } catch (RuntimeException e) {
+            sendLimiter.release();
+            throw e;
+        }
+        // Chỗ được trả lại khi tin nhắn có kết quả cuối cùng, kể cả sau nhiều lần thử lại
+        pending.getDelivery().whenComplete((metadata, ex) -> sendLimiter.release());
+        sendWithRetry(pending);
+        return pending.getDelivery();
+    }
+    
+    /**
+     * Gửi tin nhắn và hoàn tất khi broker đã xác nhận, không giữ thread của người gọi trong lúc chờ.
+     * Future thất bại với MessageDeliveryException nếu tin nhắn bị chuyển xuống đĩa,
+     * hoặc TimeoutException nếu quá ack-timeout-ms mà chưa có kết quả.
+     */
+    public CompletableFuture<SendAck> sendMessageAwaitAck(Message message) {
+        return sendMessage(message)
+                .thenApply(metadata -> SendAck.of(message.getId(), metadata))
+                .orTimeout(ackTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Gửi cả lô tin nhắn: tất cả record được đẩy vào producer trước khi chờ bất kỳ xác nhận nào,
+     * kết quả được tổng hợp theo partition khi mọi tin nhắn đã có kết quả cuối cùng.
+     */
+    public CompletableFuture<BatchSendResult> sendBatch(List<Message> messages) {
+        List<CompletableFuture<RecordMetadata>> deliveries = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            try {
+                deliveries.add(sendMessage(message));
+            } catch (ProducerBackpressureException e) {
+                log.warn("Batch message rejected by backpressure: [{}]", message.getId());
+                CompletableFuture<RecordMetadata> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                deliveries.add(rejected);
+            }
+        }
+        
+        return CompletableFuture.allOf(deliveries.toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, ex) -> {
+                    BatchSendResult result = new BatchSendResult();
+                    for (int i = 0; i < deliveries.size(); i++) {
+                        CompletableFuture<RecordMetadata> delivery = deliveries.get(i);
+                        if (delivery.isCompletedExceptionally()) {
+                            result.recordFailure(messages.get(i).getId());
+                        } else {
+                            RecordMetadata metadata = delivery.join();
+                            result.recordSuccess(metadata.partition(), metadata.offset());
+                        }
+                    }
+                    return result;
+                });
+    }
+    
+    private PendingRecord enqueue(Message message, boolean mayBlock) {
         if (message.getId() == null || message.getId().isEmpty()) {
             message.setId(UUID.randomUUID().toString());
         }
@@ -59,78 +165,121 @@ public class HighAvailabilityProducerService {
         }
         
         // Lưu tin nhắn vào bộ nhớ tạm thời để có thể gửi lại nếu cần
-        pendingMessages.put(message.getId(), message);
-        retryCount.put(message.getId(), new AtomicInteger(0));
-        
-        sendWithRetry(message);
+        List<PendingRecord> shed = new ArrayList<>();
+        PendingRecord pending = pendingMessages.add(message, shed, mayBlock);
+        shed.forEach(this::handleMaxRetriesReached);
+        metrics.recordAccepted();
+        return pending;
     }
     
-    private void sendWithRetry(Message message) {
+    private void sendWithRetry(PendingRecord pending) {
+        Message message = pending.getMessage();
         // Tạo record với headers để theo dõi
         ProducerRecord<String, Message> record = new ProducerRecord<>(
             topicName, 
-            null, // Để Kafka tự chọn partition
-            message.getId(), // key
+            null, // Để Kafka tự chọn partition theo key
+            keyResolver.keyFor(message), // key
             message, // value
-            new ArrayList<>() {{
-                add(new RecordHeader("retry-count", 
-                    String.valueOf(retryCount.get(message.getId()).get()).getBytes(StandardCharsets.UTF_8)));
-                add(new RecordHeader("timestamp", 
-                    String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8)));
-            }}
+            buildHeaders(pending)
         );
 
+        metrics.recordSendAttempt(pending.getAttempts().get());
+        long sendStartNanos = System.nanoTime();
         ListenableFuture<SendResult<String, Message>> future = 
             clusterKafkaTemplate.send(record);
 
         future.addCallback(new ListenableFutureCallback<SendResult<String, Message>>() {
             @Override
             public void onSuccess(SendResult<String, Message> result) {
-                log.info("Message sent successfully to cluster: [{}] with offset: [{}], partition: [{}]", 
-                    message, 
-                    result.getRecordMetadata().offset(),
-                    result.getRecordMetadata().partition());
+                long ackLatencyNanos = System.nanoTime() - sendStartNanos;
+                metrics.recordAck(result.getRecordMetadata().partition(), ackLatencyNanos);
+                sendLimiter.onAck(ackLatencyNanos);
+                logSampler.record(result.getRecordMetadata().partition());
+                partitionLoad.record(result.getRecordMetadata().partition(),
+                    Math.max(0, result.getRecordMetadata().serializedKeySize()) + result.getRecordMetadata().serializedValueSize());
+                if (logSampler.shouldLog()) {
+                    log.info("Message sent successfully to cluster: [{}] with offset: [{}], partition: [{}]", 
+                        message, 
+                        result.getRecordMetadata().offset(),
+                        result.getRecordMetadata().partition());
+                }
                 
                 // Xóa tin nhắn khỏi bộ nhớ tạm thời khi gửi thành công
-                pendingMessages.remove(message.getId());
-                retryCount.remove(message.getId());
+                pendingMessages.remove(pending);
+                pending.getDelivery().complete(result.getRecordMetadata());
             }
 
             @Override
             public void onFailure(Throwable ex) {
-                int currentRetry = retryCount.get(message.getId()).incrementAndGet();
+                metrics.recordFailure();
+                sendLimiter.onError();
+                if (pendingMessages.get(message.getId()) != pending) {
+                    // Tin nhắn đã bị loại khỏi bộ nhớ chờ (shed hoặc được thay thế), không thử lại
+                    log.warn("Send failed for message no longer pending: [{}]", message.getId());
+                    return;
+                }
+                int currentRetry = pending.getAttempts().incrementAndGet();
                 log.error("Failed to send message to cluster: [{}], retry attempt: {}", message, currentRetry, ex);
                 
-                if (currentRetry <= MAX_RETRIES) {
-                    // Thử lại sau một khoảng thời gian
+                if (!topologyMonitor.isWritable()) {
+                    // Topic mất leader hoặc thiếu ISR: ghi xuống đĩa ngay, sẽ được gửi lại khi topology phục hồi
+                    log.warn("Topic is not writable ({}), spilling message without further retries: [{}]",
+                            topologyMonitor.getStatus(), message.getId());
+                    handleMaxRetriesReached(pending);
+                } else if (currentRetry <= MAX_RETRIES) {
+                    // Thử lại sau một khoảng thời gian, không sleep trên thread callback của producer
                     log.info("Retrying message: [{}], attempt: {}/{}", message.getId(), currentRetry, MAX_RETRIES);
-                    try {
-                        // Tăng thời gian chờ theo cấp số nhân để tránh quá tải hệ thống
-                        Thread.sleep(1000 * (long)Math.pow(2, currentRetry - 1));
-                        sendWithRetry(message);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        log.error("Retry interrupted for message: [{}]", message.getId(), e);
+                    long waitingTicket = pending.markWaiting();
+                    // Tin nhắn có thể bị loại (SHED_OLDEST) hoặc được resend-pending gửi lại trong lúc chờ,
+                    // khi đó lần thử lại này không gửi nữa
+                    if (!retryScheduler.schedule(currentRetry, () -> {
+                        if (pending.markInFlight(waitingTicket)) {
+                            sendWithRetry(pending);
+                        }
+                    })) {
+                        log.error("Retry queue is full, cannot schedule retry for message: [{}]", message.getId());
+                        if (pending.markInFlight(waitingTicket)) {
+                            handleMaxRetriesReached(pending);
+                        }
                     }
                 } else {
                     log.error("Max retries reached for message: [{}], giving up", message.getId());
                     // Có thể lưu vào dead letter queue hoặc cơ sở dữ liệu để xử lý thủ công sau
-                    handleMaxRetriesReached(message);
+                    handleMaxRetriesReached(pending);
                 }
             }
         });
     }
     
-    private void handleMaxRetriesReached(Message message) {
-        log.error("Message could not be delivered after {} attempts: {}", MAX_RETRIES, message);
-        // Trong môi trường thực tế, bạn có thể:
-        // 1. Lưu vào cơ sở dữ liệu
-        // 2. Gửi thông báo cho admin
-        // 3. Gửi vào dead letter queue
+    private List<Header> buildHeaders(PendingRecord pending) {
+        Message message = pending.getMessage();
+        List<Header> headers = new ArrayList<>(4);
+        headers.add(new RecordHeader("retry-count",
+            String.valueOf(pending.getAttempts().get()).getBytes(StandardCharsets.UTF_8)));
+        headers.add(new RecordHeader("timestamp",
+            String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8)));
+        // Cho phép consumer kiểm tra trùng lặp và lọc theo loại mà không cần giải mã payload
+        headers.add(new RecordHeader("message-id", message.getId().getBytes(StandardCharsets.UTF_8)));
+        headers.add(new RecordHeader("message-type", message.getType().name().getBytes(StandardCharsets.UTF_8)));
+        return headers;
+    }
+    
+    private void handleMaxRetriesReached(PendingRecord pending) {
+        Message message = pending.getMessage();
+        log.error("Message could not be delivered after {} attempts: {}", pending.getAttempts().get(), message);
+        
+        // Ghi vào nhật ký trên đĩa để gửi lại khi cluster hoạt động trở lại hoặc sau khi khởi động lại
+        try {
+            spillLog.append(message);
+            metrics.recordSpilled();
+        } catch (IOException e) {
+            log.error("Failed to spill undeliverable message to disk, message is lost: [{}]", message.getId(), e);
+        }
         
         // Xóa khỏi bộ nhớ tạm thời để tránh rò rỉ bộ nhớ
-        pendingMessages.remove(message.getId());
-        retryCount.remove(message.getId());
+        pendingMessages.remove(pending);
+        pending.getDelivery().completeExceptionally(new MessageDeliveryException(
+                "Message " + message.getId() + " could not be delivered to the cluster and was spilled to disk"));
     }
     
     public void sendInfoMessage(String content) {
@@ -153,24 +302,79 @@ public class HighAvailabilityProducerService {
                 .additionalData(data)
                 .build();
         
-        sendMessage(message);
+        if (!coalescer.offer(message)) {
+            sendMessage(message);
+        }
     }
     
     // Phương thức để kiểm tra trạng thái của các broker
     public Map<String, Object> getClusterHealth() {
-        Map<String, Object> health = new HashMap<>();
-        health.put("pendingMessages", pendingMessages.size());
-        health.put("status", pendingMessages.isEmpty() ? "HEALTHY" : "DEGRADED");
+        Map<String, Object> health = new HashMap<>(pendingMessages.getStats());
+        ClusterTopologyMonitor.Status topology = topologyMonitor.getStatus();
+        if (!topologyMonitor.isWritable()) {
+            health.put("status", topology.name());
+        } else {
+            health.put("status", pendingMessages.isEmpty() && topology != ClusterTopologyMonitor.Status.DEGRADED
+                    ? "HEALTHY" : "DEGRADED");
+        }
+        health.put("topology", topologyMonitor.getSnapshot());
+        health.put("retries", retryScheduler.getStats());
+        health.put("spill", spillLog.getStats());
         return health;
     }
     
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> result = metrics.snapshot();
+        result.put("pending", pendingMessages.getStats());
+        result.put("retries", retryScheduler.getStats());
+        result.put("keyStrategy", keyResolver.getStrategy().name());
+        result.put("partitionLoad", partitionLoad.getStats());
+        result.put("sendLimiter", sendLimiter.getStats());
+        result.put("coalescing", coalescer.getStats());
+        return result;
+    }
+    
     // Phương thức để gửi lại tất cả các tin nhắn đang chờ xử lý
     public void resendAllPendingMessages() {
         log.info("Resending {} pending messages", pendingMessages.size());
-        for (Message message : pendingMessages.values()) {
-            // Reset retry count
-            retryCount.put(message.getId(), new AtomicInteger(0));
-            sendWithRetry(message);
+        for (PendingRecord pending : pendingMessages.all()) {
+            // Chỉ gửi lại tin nhắn đang chờ thử lại, lần thử lại đã lên lịch của nó bị bỏ qua;
+            // tin nhắn đang chờ broker xác nhận không được gửi lần thứ hai
+            if (pending.markInFlight()) {
+                pending.getAttempts().set(0);
+                sendWithRetry(pending);
+            }
+        }
+        replaySpilledMessages();
+    }
+    
+    // Thread xả của coalescer không được chờ bộ nhớ chờ; tin nhắn bị từ chối được giữ lại cho lần xả sau
+    @PostConstruct
+    public void registerCoalescerSink() {
+        coalescer.setSink(this::trySendMessage);
+    }
+    
+    // Gửi lại các tin nhắn đã ghi xuống đĩa ngay khi topic có leader và đủ ISR trở lại
+    @PostConstruct
+    public void registerTopologyRecovery() {
+        topologyMonitor.addRecoveryListener(() -> {
+            log.info("Cluster topology recovered, replaying spilled messages");
+            replaySpilledMessages();
+        });
+    }
+    
+    // Phát lại các tin nhắn đã ghi xuống đĩa khi ứng dụng khởi động
+    @EventListener(ApplicationReadyEvent.class)
+    public void replaySpilledMessages() {
+        spillLog.replayAsync(this::resendSpilledBatch);
+    }
+    
+    // Khác với sendBatch: lỗi backpressure làm dừng phát lại để segment được giữ nguyên trên đĩa
+    private CompletableFuture<Void> resendSpilledBatch(List<Message> batch) {
+        CompletableFuture<?>[] deliveries = new CompletableFuture<?>[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            deliveries[i] = sendMessage(batch.get(i));
         }
+        return CompletableFuture.allOf(deliveries);
     }
 }
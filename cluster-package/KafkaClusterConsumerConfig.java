@@ -1,60 +1,293 @@
 package com.example.consumer.config;
 
 import com.example.consumer.model.Message;
+import com.example.consumer.service.DedupStateHandoff;
+import com.example.consumer.service.RecordPreFilter;
+import com.example.consumer.service.RetryTopicRouter;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultAfterRollbackProcessor;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
+import org.springframework.util.backoff.FixedBackOff;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
 
 @Configuration
+@RequiredArgsConstructor
 @Profile("cluster")
 public class KafkaClusterConsumerConfig {
 
+    private final RecordPreFilter recordPreFilter;
+    // ObjectProvider vì DedupStateHandoff dùng các bean handoff được khai báo trong chính cấu hình này
+    private final ObjectProvider<DedupStateHandoff> dedupStateHandoff;
+
     @Value("${spring.kafka.consumer.bootstrap-servers}")
     private String bootstrapServers;
 
     @Value("${spring.kafka.consumer.group-id}")
     private String groupId;
 
+    // Kích thước lô và cách broker gom dữ liệu cho mỗi lần poll
+    @Value("${kafka.consumer.max-poll-records:500}")
+    private int maxPollRecords;
+
+    @Value("${kafka.consumer.fetch-min-bytes:1}")
+    private int fetchMinBytes;
+
+    @Value("${kafka.consumer.fetch-max-wait-ms:500}")
+    private int fetchMaxWaitMs;
+
+    @Value("${kafka.topic.name}")
+    private String topicName;
+
+    // Bỏ qua tin nhắn trùng lặp / bị lọc dựa trên header, trước khi giải mã payload
+    @Value("${kafka.consumer.lazy-decode.enabled:false}")
+    private boolean lazyDecode;
+
+    // Rebalance tăng dần: chỉ các partition thực sự chuyển chủ mới bị thu hồi, các partition khác tiếp tục được xử lý
+    @Value("${kafka.consumer.rebalance.cooperative:false}")
+    private boolean cooperativeRebalance;
+
+    // Static membership: khởi động lại trong thời gian session timeout không gây rebalance (rỗng = tắt)
+    @Value("${kafka.consumer.group-instance-id:}")
+    private String groupInstanceId;
+
+    @Value("${kafka.consumer.session-timeout-ms:30000}")
+    private int sessionTimeoutMs;
+
+    // Topic nhận kết quả xử lý trong chế độ transactional
+    @Value("${kafka.consumer.transactions.output-topic:${kafka.topic.name}-processed}")
+    private String transactionalOutputTopic;
+
+    // Tiền tố transactional.id riêng của instance này (rỗng = lấy từ group-instance-id hoặc tên máy)
+    @Value("${kafka.consumer.transactions.id-prefix:}")
+    private String transactionIdPrefix;
+
+    // Số lần xử lý lại một lô sau khi transaction bị rollback trước khi chuyển sang DLT
+    @Value("${kafka.consumer.transactions.max-rollbacks:3}")
+    private int maxRollbacks;
+
     @Bean
     public ConsumerFactory<String, Message> clusterConsumerFactory() {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, MessageDeserializer.class);
         props.put(JsonDeserializer.TRUSTED_PACKAGES, "com.example.consumer.model");
         
         // Reliability settings for cluster
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
         props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
-        props.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, 30000);
-        props.put(ConsumerConfig.HEARTBEAT_INTERVAL_MS_CONFIG, 10000);
+        props.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, sessionTimeoutMs);
+        props.put(ConsumerConfig.HEARTBEAT_INTERVAL_MS_CONFIG, Math.min(10000, sessionTimeoutMs / 3));
         props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, 300000);
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         
+        // Throughput settings
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, fetchMinBytes);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, fetchMaxWaitMs);
+        
+        if (cooperativeRebalance) {
+            props.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, CooperativeStickyAssignor.class.getName());
+        }
+        
         return new DefaultKafkaConsumerFactory<>(props, 
                 new StringDeserializer(),
-                new JsonDeserializer<>(Message.class, false));
+                new MessageDeserializer(lazyDecode ? recordPreFilter : null));
     }
 
     @Bean
     public ConcurrentKafkaListenerContainerFactory<String, Message> clusterKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, Message> factory = newContainerFactory();
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        return factory;
+    }
+
+    // Nhận cả lô record mỗi lần poll và commit một lần cho cả lô (kafka.consumer.listener-mode=batch)
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, Message> clusterBatchKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, Message> factory = newContainerFactory();
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
+    // Producer / consumer của topic compacted lưu trạng thái chống trùng lặp khi partition chuyển chủ
+    @Bean
+    public KafkaTemplate<String, String> handoffKafkaTemplate() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(props));
+    }
+
+    @Bean
+    public ConsumerFactory<String, String> handoffConsumerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.rebalance.handoff.enabled", havingValue = "true")
+    public NewTopic dedupStateTopic() {
+        return TopicBuilder.name(topicName + DedupStateHandoff.STATE_TOPIC_SUFFIX).partitions(3).replicas(3).compact().build();
+    }
+
+    // Producer dùng để chuyển tin nhắn lỗi sang các retry topic / DLT và phát lại DLT
+    @Bean
+    public ProducerFactory<String, Message> retryProducerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        return new DefaultKafkaProducerFactory<>(props);
+    }
+
+    @Bean
+    public KafkaTemplate<String, Message> retryKafkaTemplate() {
+        return new KafkaTemplate<>(retryProducerFactory());
+    }
+
+    // Chế độ transactional (kafka.consumer.listener-mode=transactional): mỗi lô poll là một transaction,
+    // gồm các record ghi ra output topic / DLT và offset của lô, commit hoặc rollback cùng nhau
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.listener-mode", havingValue = "transactional")
+    public ProducerFactory<String, Message> transactionalProducerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        DefaultKafkaProducerFactory<String, Message> factory = new DefaultKafkaProducerFactory<>(props);
+        factory.setTransactionIdPrefix(transactionIdPrefix());
+        return factory;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.listener-mode", havingValue = "transactional")
+    public KafkaTemplate<String, Message> transactionalKafkaTemplate() {
+        return new KafkaTemplate<>(transactionalProducerFactory());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.listener-mode", havingValue = "transactional")
+    public KafkaTransactionManager<String, Message> kafkaTransactionManager() {
+        return new KafkaTransactionManager<>(transactionalProducerFactory());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.listener-mode", havingValue = "transactional")
+    public ConcurrentKafkaListenerContainerFactory<String, Message> clusterTransactionalKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, Message> factory = newContainerFactory();
+        factory.setBatchListener(true);
+        // Container bắt đầu transaction trước khi gọi listener và gửi offset của lô vào transaction
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+        factory.getContainerProperties().setTransactionManager(kafkaTransactionManager());
+        // Lỗi hạ tầng (gửi / commit thất bại) làm rollback, lô được seek lại và xử lý lại sau 1s;
+        // sau max-rollbacks lần, record được ghi sang DLT và offset được commit trong transaction
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(transactionalKafkaTemplate(),
+                (record, exception) -> new TopicPartition(topicName + RetryTopicRouter.DLT_SUFFIX, record.partition()));
+        factory.setAfterRollbackProcessor(new DefaultAfterRollbackProcessor<>(recoverer,
+                new FixedBackOff(1000L, maxRollbacks), transactionalKafkaTemplate(), true));
+        return factory;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.listener-mode", havingValue = "transactional")
+    public NewTopic transactionalOutputTopic() {
+        return TopicBuilder.name(transactionalOutputTopic).partitions(3).replicas(3).build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.retry-topics.enabled", havingValue = "true")
+    public NewTopic retry5sTopic() {
+        return TopicBuilder.name(topicName + RetryTopicRouter.RETRY_5S_SUFFIX).partitions(3).replicas(3).build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.retry-topics.enabled", havingValue = "true")
+    public NewTopic retry1mTopic() {
+        return TopicBuilder.name(topicName + RetryTopicRouter.RETRY_1M_SUFFIX).partitions(3).replicas(3).build();
+    }
+
+    // DLT cũng được dùng trong chế độ transactional cho các tin nhắn hết số lần thử
+    @Bean
+    @ConditionalOnExpression("${kafka.consumer.retry-topics.enabled:false} or '${kafka.consumer.listener-mode:record}' == 'transactional'")
+    public NewTopic deadLetterTopic() {
+        return TopicBuilder.name(topicName + RetryTopicRouter.DLT_SUFFIX).partitions(3).replicas(3).build();
+    }
+
+    // Mỗi instance cần transactional.id riêng và ổn định qua các lần khởi động lại,
+    // nếu không các instance sẽ fence producer của nhau (ProducerFencedException)
+    private String transactionIdPrefix() {
+        if (!transactionIdPrefix.isEmpty()) {
+            return transactionIdPrefix;
+        }
+        String instance = groupInstanceId;
+        if (instance.isEmpty()) {
+            try {
+                instance = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException("Cannot resolve host name for the transactional.id prefix, "
+                        + "set kafka.consumer.transactions.id-prefix or kafka.consumer.group-instance-id", e);
+            }
+        }
+        return groupId + "-" + instance + "-tx-";
+    }
+
+    private ConcurrentKafkaListenerContainerFactory<String, Message> newContainerFactory() {
         ConcurrentKafkaListenerContainerFactory<String, Message> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(clusterConsumerFactory());
-        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
         factory.setConcurrency(3); // One consumer per partition for better parallelism
+        factory.getContainerProperties().setConsumerRebalanceListener(dedupStateHandoff.getObject());
+        if (!groupInstanceId.isEmpty()) {
+            // Mỗi consumer cần group.instance.id riêng: tiền tố + id của listener (+ chỉ số do container thêm vào)
+            factory.setContainerCustomizer(container -> container.getContainerProperties().getKafkaConsumerProperties()
+                    .setProperty(ConsumerConfig.GROUP_INSTANCE_ID_CONFIG, groupInstanceId + "-" + container.getListenerId()));
+        }
         return factory;
     }
 }
@@ -1,6 +1,7 @@
 package com.example.producer.config;
 
 import com.example.producer.model.Message;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
@@ -10,12 +11,12 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
-import org.springframework.kafka.support.serializer.JsonSerializer;
 
 import java.util.HashMap;
 import java.util.Map;
 
 @Configuration
+@Slf4j
 @Profile("cluster")
 public class KafkaClusterProducerConfig {
 
@@ -28,18 +29,33 @@ public class KafkaClusterProducerConfig {
     @Value("${spring.kafka.producer.retries}")
     private int retries;
 
+    // Bộ cấu hình batching/nén/in-flight: strict-ordering, durable-low-latency, durable-high-throughput
+    @Value("${kafka.producer.profile:durable-low-latency}")
+    private String profileName;
+
+    // Định dạng giá trị: json (mặc định) hoặc binary; consumer phải dùng MessageDeserializer trước khi bật binary
+    @Value("${kafka.producer.value-format:json}")
+    private String valueFormat;
+
     @Bean
     public ProducerFactory<String, Message> clusterProducerFactory() {
+        ProducerProfile profile = ProducerProfile.fromName(profileName);
+        profile.validate(acks, retries);
+
         Map<String, Object> configProps = new HashMap<>();
         configProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         configProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        configProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, MessageSerializer.class);
+        configProps.put(MessageSerializer.VALUE_FORMAT_CONFIG, valueFormat);
         
         // Reliability settings for cluster
         configProps.put(ProducerConfig.ACKS_CONFIG, acks);
         configProps.put(ProducerConfig.RETRIES_CONFIG, retries);
         configProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
-        configProps.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 1);
+        
+        // Batching, nén và số request đang bay theo profile đã chọn
+        configProps.putAll(profile.toConfig());
+        log.info("Using producer profile: {} {}", profile, profile.toConfig());
         
         return new DefaultKafkaProducerFactory<>(configProps);
     }
@@ -0,0 +1,100 @@
+package com.example.consumer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Chia các record của một lô cho nhiều worker theo hash của key.
+ * Các record cùng key luôn vào cùng một worker nên giữ nguyên thứ tự xử lý theo key;
+ * nếu một record lỗi thì các record sau cùng key trong lô sẽ không được xử lý.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class KeyOrderedProcessor {
+
+    private final ExecutorService[] lanes;
+
+    public KeyOrderedProcessor(@Value("${kafka.consumer.parallel.workers:0}") int workers) {
+        this.lanes = new ExecutorService[Math.max(0, workers)];
+        for (int i = 0; i < lanes.length; i++) {
+            String threadName = "consumer-worker-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public boolean isEnabled() {
+        return lanes.length > 0;
+    }
+
+    /**
+     * Xử lý song song cả lô và chờ tất cả hoàn tất.
+     * Trả về kết quả theo đúng vị trí của từng record trong lô.
+     */
+    public <T> boolean[] process(List<T> records, Function<T, String> keyOf, Predicate<T> handler) {
+        List<List<Integer>> assignments = new ArrayList<>(lanes.length);
+        for (int i = 0; i < lanes.length; i++) {
+            assignments.add(new ArrayList<>());
+        }
+        for (int i = 0; i < records.size(); i++) {
+            String key = keyOf.apply(records.get(i));
+            // Record không có key không cần giữ thứ tự, chia đều theo vị trí
+            int lane = Math.floorMod(key == null ? i : key.hashCode(), lanes.length);
+            assignments.get(lane).add(i);
+        }
+
+        boolean[] completed = new boolean[records.size()];
+        List<CompletableFuture<Void>> futures = new ArrayList<>(lanes.length);
+        for (int lane = 0; lane < lanes.length; lane++) {
+            List<Integer> indexes = assignments.get(lane);
+            if (indexes.isEmpty()) {
+                continue;
+            }
+            futures.add(CompletableFuture.runAsync(() -> {
+                Set<String> failedKeys = new HashSet<>();
+                for (int index : indexes) {
+                    T record = records.get(index);
+                    String key = keyOf.apply(record);
+                    if (key != null && failedKeys.contains(key)) {
+                        continue;
+                    }
+                    try {
+                        completed[index] = handler.test(record);
+                    } catch (Exception e) {
+                        log.error("Unexpected error in consumer worker", e);
+                    }
+                    if (!completed[index] && key != null) {
+                        failedKeys.add(key);
+                    }
+                }
+            }, lanes[lane]));
+        }
+        // join() tạo quan hệ happens-before nên mảng kết quả được nhìn thấy đầy đủ ở thread gọi
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        return completed;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.consumer.service;
+
+import com.example.consumer.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Đẩy các tin nhắn mới nhận tới client qua server-sent events, thay cho việc client liên tục tải lại toàn bộ danh sách.
+ * Listener thread chỉ đưa tin nhắn vào hàng đợi có giới hạn của từng subscriber (không chặn);
+ * một thread riêng gửi dữ liệu ra mạng. Subscriber chậm bị bỏ tin cũ hoặc bị ngắt kết nối tùy theo chính sách.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class MessageChangeFeed {
+
+    public enum SlowSubscriberPolicy {
+        DROP_OLDEST,  // Bỏ tin nhắn cũ nhất trong hàng đợi của subscriber
+        DISCONNECT    // Ngắt kết nối subscriber, client tự kết nối lại
+    }
+
+    @Value("${kafka.consumer.feed.buffer-size:1000}")
+    private int bufferSize;
+
+    @Value("${kafka.consumer.feed.max-subscribers:100}")
+    private int maxSubscribers;
+
+    @Value("${kafka.consumer.feed.slow-subscriber-policy:DROP_OLDEST}")
+    private SlowSubscriberPolicy policy;
+
+    @Value("${kafka.consumer.feed.flush-interval-ms:100}")
+    private long flushIntervalMs;
+
+    // Thời gian tối đa của một kết nối SSE (0 = không giới hạn)
+    @Value("${kafka.consumer.feed.timeout-ms:0}")
+    private long timeoutMs;
+
+    private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
+    private final LongAdder publishedMessages = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder disconnectedSubscribers = new LongAdder();
+
+    private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "consumer-change-feed");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void start() {
+        dispatcher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Đăng ký subscriber mới; {@code type} null nghĩa là nhận mọi loại tin nhắn.
+     * Ném IllegalStateException nếu đã đạt số subscriber tối đa.
+     */
+    public SseEmitter subscribe(Message.MessageType type) {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new IllegalStateException("Too many change feed subscribers");
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(emitter, type, bufferSize);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(ex -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        log.info("Change feed subscriber added, type filter: {}, subscribers: {}", type, subscribers.size());
+        return emitter;
+    }
+
+    // Gọi từ listener thread, không bao giờ chặn
+    public void publish(Message message) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        publishedMessages.increment();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.type != null && subscriber.type != message.getType()) {
+                continue;
+            }
+            while (!subscriber.queue.offer(message)) {
+                if (policy == SlowSubscriberPolicy.DISCONNECT) {
+                    disconnect(subscriber);
+                    break;
+                }
+                if (subscriber.queue.poll() != null) {
+                    droppedMessages.increment();
+                }
+            }
+        }
+    }
+
+    private void flush() {
+        List<Message> batch = new ArrayList<>();
+        for (Subscriber subscriber : subscribers) {
+            batch.clear();
+            subscriber.queue.drainTo(batch);
+            try {
+                for (Message message : batch) {
+                    subscriber.emitter.send(SseEmitter.event()
+                            .id(message.getId())
+                            .name("message")
+                            .data(message, MediaType.APPLICATION_JSON));
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Client đã đóng kết nối
+                log.debug("Change feed subscriber disconnected: {}", e.getMessage());
+                subscribers.remove(subscriber);
+            } catch (Exception e) {
+                log.error("Failed to push messages to change feed subscriber", e);
+                disconnect(subscriber);
+            }
+        }
+    }
+
+    private void disconnect(Subscriber subscriber) {
+        if (subscriber.closed.compareAndSet(false, true)) {
+            subscribers.remove(subscriber);
+            disconnectedSubscribers.increment();
+            log.warn("Disconnecting slow change feed subscriber");
+            // complete() chỉ lên lịch đóng kết nối trên thread của servlet nên an toàn khi gọi từ listener thread
+            subscriber.emitter.complete();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("subscribers", subscribers.size());
+        stats.put("publishedMessages", publishedMessages.sum());
+        stats.put("droppedMessages", droppedMessages.sum());
+        stats.put("disconnectedSubscribers", disconnectedSubscribers.sum());
+        stats.put("slowSubscriberPolicy", policy.name());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+    }
+
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private final Message.MessageType type;
+        private final BlockingQueue<Message> queue;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        Subscriber(SseEmitter emitter, Message.MessageType type, int bufferSize) {
+            this.emitter = emitter;
+            this.type = type;
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+        }
+    }
+}
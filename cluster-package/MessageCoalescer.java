@@ -0,0 +1,207 @@
+package com.example.producer.service;
+
+import com.example.producer.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Gộp các tin nhắn DATA cùng key trong một cửa sổ thời gian (kafka.producer.coalescing.enabled):
+ * chỉ tin nhắn cuối cùng của mỗi key được gửi đi (last-write-wins).
+ * Bộ đệm được xả sau mỗi window-ms hoặc ngay khi số key đạt max-keys.
+ * Key lấy từ MessageKeyResolver nên chỉ có tác dụng với chiến lược FIELD hoặc TYPE.
+ * Là SmartLifecycle để lần xả cuối chạy khi context dừng, trước khi producer bị hủy;
+ * tin nhắn vẫn không gửi được khi đó được ghi vào MessageSpillLog để gửi lại sau khi khởi động lại.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class MessageCoalescer implements SmartLifecycle {
+
+    private final MessageKeyResolver keyResolver;
+    private final MessageSpillLog spillLog;
+
+    @Value("${kafka.producer.coalescing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.producer.coalescing.window-ms:100}")
+    private long windowMs;
+
+    @Value("${kafka.producer.coalescing.max-keys:10000}")
+    private int maxKeys;
+
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "producer-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Tin nhắn mới nhất theo key trong cửa sổ hiện tại, được bảo vệ bởi khóa của đối tượng
+    private Map<String, Message> buffer = new LinkedHashMap<>();
+    private volatile Consumer<Message> sink;
+    // Chỉ đổi sang false trong khóa của đối tượng, để offer không thêm tin nhắn sau khi stop đã xả bộ đệm
+    private volatile boolean running;
+
+    private final LongAdder receivedMessages = new LongAdder();
+    private final LongAdder coalescedMessages = new LongAdder();
+    private final LongAdder flushedMessages = new LongAdder();
+    private final LongAdder deferredMessages = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder spilledMessages = new LongAdder();
+
+    public MessageCoalescer(MessageKeyResolver keyResolver, MessageSpillLog spillLog) {
+        this.keyResolver = keyResolver;
+        this.spillLog = spillLog;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (!enabled) {
+            return;
+        }
+        MessageKeyResolver.KeyStrategy strategy = keyResolver.getStrategy();
+        if (strategy == MessageKeyResolver.KeyStrategy.ID || strategy == MessageKeyResolver.KeyStrategy.NONE) {
+            log.warn("Message coalescing is enabled but key strategy {} gives no shared keys, nothing will be coalesced", strategy);
+        }
+        flushScheduler.scheduleWithFixedDelay(this::flushSafely, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Nơi nhận tin nhắn khi xả bộ đệm; không được chờ, ném ProducerBackpressureException khi producer quá tải
+    public void setSink(Consumer<Message> sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Đưa tin nhắn vào bộ đệm. Trả về false nếu tin nhắn không được gộp và người gọi phải tự gửi
+     * (tắt coalescing, chưa có sink, không phải DATA hoặc không có key).
+     */
+    public boolean offer(Message message) {
+        if (!enabled || sink == null || message.getType() != Message.MessageType.DATA) {
+            return false;
+        }
+        String key = keyResolver.keyFor(message);
+        if (key == null) {
+            return false;
+        }
+        boolean full;
+        synchronized (this) {
+            if (!running) {
+                return false;
+            }
+            receivedMessages.increment();
+            if (buffer.put(key, message) != null) {
+                coalescedMessages.increment();
+            }
+            full = buffer.size() >= maxKeys;
+        }
+        if (full) {
+            flushScheduler.execute(this::flushSafely);
+        }
+        return true;
+    }
+
+    // Gửi tin nhắn mới nhất của từng key; việc gửi nằm ngoài khóa để offer không bị chặn
+    public void flush() {
+        Map<String, Message> batch;
+        synchronized (this) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            batch = buffer;
+            buffer = new LinkedHashMap<>();
+        }
+        flushes.increment();
+        for (Map.Entry<String, Message> entry : batch.entrySet()) {
+            try {
+                sink.accept(entry.getValue());
+                flushedMessages.increment();
+            } catch (ProducerBackpressureException e) {
+                // Producer đang quá tải: giữ lại cho lần xả sau trừ khi key đã có giá trị mới hơn
+                deferredMessages.increment();
+                synchronized (this) {
+                    buffer.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Failed to flush coalesced messages", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long received = receivedMessages.sum();
+        long flushed = flushedMessages.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("windowMs", windowMs);
+        stats.put("receivedMessages", received);
+        stats.put("coalescedMessages", coalescedMessages.sum());
+        stats.put("flushedMessages", flushed);
+        stats.put("deferredMessages", deferredMessages.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("spilledMessages", spilledMessages.sum());
+        // Số tin nhắn nhận vào cho mỗi record thực sự được gửi
+        stats.put("coalescingRatio", flushed == 0 ? 0.0 : (double) received / flushed);
+        synchronized (this) {
+            stats.put("bufferedKeys", buffer.size());
+        }
+        return stats;
+    }
+
+    // Dừng sớm nhất trong các SmartLifecycle; producer chỉ bị hủy sau khi mọi lifecycle đã dừng
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            running = false;
+        }
+        flushScheduler.shutdownNow();
+        if (!enabled || sink == null) {
+            return;
+        }
+        flushSafely();
+        // Producer vẫn quá tải ở lần xả cuối: ghi phần còn lại xuống đĩa thay vì bỏ đi
+        Map<String, Message> remaining;
+        synchronized (this) {
+            remaining = buffer;
+            buffer = new LinkedHashMap<>();
+        }
+        for (Message message : remaining.values()) {
+            try {
+                spillLog.append(message);
+                spilledMessages.increment();
+            } catch (IOException e) {
+                log.error("Failed to spill coalesced message to disk during shutdown, message is lost: [{}]", message.getId(), e);
+            }
+        }
+        if (!remaining.isEmpty()) {
+            log.warn("Spilled {} coalesced messages that could not be sent before shutdown", spilledMessages.sum());
+        }
+    }
+}
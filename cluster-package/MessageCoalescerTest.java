@@ -0,0 +1,111 @@
+package com.example.producer.service;
+
+import com.example.producer.model.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageCoalescerTest {
+
+    @TempDir
+    Path directory;
+
+    private MessageSpillLog spillLog;
+
+    @BeforeEach
+    void openSpillLog() throws IOException {
+        spillLog = new MessageSpillLog(new ObjectMapper(), directory.toString(), 1 << 20, 60_000, 100);
+        spillLog.open();
+    }
+
+    @AfterEach
+    void closeSpillLog() throws IOException {
+        spillLog.close();
+    }
+
+    @Test
+    void flushSendsOnlyLatestMessagePerKey() {
+        MessageCoalescer coalescer = coalescer(MessageKeyResolver.KeyStrategy.TYPE);
+        List<Message> sent = new ArrayList<>();
+        coalescer.setSink(sent::add);
+        coalescer.start();
+
+        assertTrue(coalescer.offer(message("m-1")));
+        assertTrue(coalescer.offer(message("m-2")));
+        assertTrue(coalescer.offer(message("m-3")));
+        coalescer.flush();
+
+        assertEquals(List.of("m-3"), ids(sent));
+        assertEquals(2L, coalescer.getStats().get("coalescedMessages"));
+        coalescer.stop();
+    }
+
+    @Test
+    void offerAfterStopIsNotBuffered() {
+        MessageCoalescer coalescer = coalescer(MessageKeyResolver.KeyStrategy.ID);
+        coalescer.setSink(message -> { });
+        coalescer.start();
+        coalescer.stop();
+
+        assertFalse(coalescer.offer(message("m-1")));
+        assertEquals(0, coalescer.getStats().get("bufferedKeys"));
+    }
+
+    // Producer vẫn quá tải ở lần xả cuối: tin nhắn còn lại được ghi vào spill log thay vì bị bỏ
+    @Test
+    void messagesStillBufferedAtStopAreSpilled() {
+        MessageCoalescer coalescer = coalescer(MessageKeyResolver.KeyStrategy.ID);
+        coalescer.setSink(message -> {
+            throw new ProducerBackpressureException("pending store is full");
+        });
+        coalescer.start();
+        coalescer.offer(message("m-1"));
+        coalescer.offer(message("m-2"));
+
+        coalescer.stop();
+
+        assertEquals(2L, coalescer.getStats().get("spilledMessages"));
+        assertEquals(0, coalescer.getStats().get("bufferedKeys"));
+        List<String> replayed = new ArrayList<>();
+        spillLog.replay(batch -> {
+            replayed.addAll(ids(batch));
+            return CompletableFuture.completedFuture(null);
+        });
+        assertEquals(List.of("m-1", "m-2"), replayed);
+    }
+
+    private MessageCoalescer coalescer(MessageKeyResolver.KeyStrategy strategy) {
+        MessageCoalescer coalescer = new MessageCoalescer(new MessageKeyResolver(strategy, ""), spillLog);
+        ReflectionTestUtils.setField(coalescer, "enabled", true);
+        ReflectionTestUtils.setField(coalescer, "windowMs", 60_000L);
+        ReflectionTestUtils.setField(coalescer, "maxKeys", 100);
+        return coalescer;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).collect(Collectors.toList());
+    }
+
+    private static Message message(String id) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent("content " + id);
+        message.setTimestamp(1_700_000_000_000L);
+        message.setType(Message.MessageType.DATA);
+        return message;
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.consumer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Chỉ mục chống trùng lặp cho message id, an toàn với nhiều listener thread.
+ * Chỉ lưu hash 64-bit của id trong các mảng long nên bộ nhớ cố định theo dung lượng cấu hình;
+ * chia thành nhiều stripe để giảm tranh chấp, mỗi stripe loại bỏ id cũ nhất (FIFO) khi đầy hoặc hết hạn.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class MessageDedupIndex {
+
+    private static final long EMPTY = 0L;
+
+    private final Stripe[] stripes;
+    private final long ttlMs;
+    private final int capacity;
+
+    public MessageDedupIndex(@Value("${kafka.consumer.dedup.capacity:1000000}") int capacity,
+                             @Value("${kafka.consumer.dedup.ttl-ms:3600000}") long ttlMs,
+                             @Value("${kafka.consumer.dedup.stripes:16}") int stripeCount) {
+        int stripesPow2 = Integer.highestOneBit(Math.max(1, stripeCount));
+        int perStripe = Math.max(1, capacity / stripesPow2);
+        this.stripes = new Stripe[stripesPow2];
+        for (int i = 0; i < stripesPow2; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+        this.capacity = perStripe * stripesPow2;
+        this.ttlMs = ttlMs;
+    }
+
+    public boolean contains(String messageId) {
+        long hash = hash(messageId);
+        return stripeFor(hash).contains(hash, System.currentTimeMillis() - ttlMs);
+    }
+
+    /**
+     * Ghi nhận id đã xử lý. Trả về false nếu id đã có trong chỉ mục.
+     */
+    public boolean add(String messageId) {
+        long hash = hash(messageId);
+        return stripeFor(hash).add(hash, System.currentTimeMillis(), ttlMs);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", size());
+        stats.put("capacity", capacity);
+        stats.put("ttlMs", ttlMs);
+        return stats;
+    }
+
+    private Stripe stripeFor(long hash) {
+        // Bit thấp dùng cho vị trí trong bảng băm, bit cao dùng để chọn stripe
+        return stripes[(int) (hash >>> 32) & (stripes.length - 1)];
+    }
+
+    // FNV-1a 64-bit trên các ký tự rồi trộn thêm để phân bố đều các bit cao; 0 được dành cho ô trống
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1L : h;
+    }
+
+    /**
+     * Một stripe gồm bảng băm địa chỉ mở (linear probing) chứa hash và một hàng đợi vòng theo thứ tự thêm vào.
+     * Bảng có kích thước gấp đôi dung lượng nên luôn còn ô trống.
+     */
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long[] table;
+        private final int mask;
+        private final long[] ring;
+        private final long[] ringTimes;
+        private int head;
+        private int size;
+
+        Stripe(int capacity) {
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+            this.table = new long[tableSize];
+            this.mask = tableSize - 1;
+            this.ring = new long[capacity];
+            this.ringTimes = new long[capacity];
+        }
+
+        boolean contains(long hash, long expiredBefore) {
+            lock.lock();
+            try {
+                evictExpired(expiredBefore);
+                return indexOf(hash) >= 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean add(long hash, long now, long ttlMs) {
+            lock.lock();
+            try {
+                evictExpired(now - ttlMs);
+                if (indexOf(hash) >= 0) {
+                    return false;
+                }
+                if (size == ring.length) {
+                    evictOldest();
+                }
+                int tail = (head + size) % ring.length;
+                ring[tail] = hash;
+                ringTimes[tail] = now;
+                size++;
+                insert(hash);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                Arrays.fill(table, EMPTY);
+                head = 0;
+                size = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void evictExpired(long expiredBefore) {
+            while (size > 0 && ringTimes[head] < expiredBefore) {
+                evictOldest();
+            }
+        }
+
+        private void evictOldest() {
+            delete(ring[head]);
+            head = (head + 1) % ring.length;
+            size--;
+        }
+
+        private int indexOf(long hash) {
+            int index = (int) hash & mask;
+            while (table[index] != EMPTY) {
+                if (table[index] == hash) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(long hash) {
+            int index = (int) hash & mask;
+            while (table[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            table[index] = hash;
+        }
+
+        // Xóa theo kiểu backward-shift để không cần tombstone
+        private void delete(long hash) {
+            int index = indexOf(hash);
+            if (index < 0) {
+                return;
+            }
+            int next = (index + 1) & mask;
+            while (table[next] != EMPTY) {
+                int home = (int) table[next] & mask;
+                // Dời phần tử lên ô trống nếu ô trống nằm giữa vị trí gốc và vị trí hiện tại của nó
+                if (((next - home) & mask) >= ((next - index) & mask)) {
+                    table[index] = table[next];
+                    index = next;
+                }
+                next = (next + 1) & mask;
+            }
+            table[index] = EMPTY;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.consumer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageDedupIndexTest {
+
+    private static final long ONE_HOUR_MS = 3_600_000;
+
+    @Test
+    void addReportsDuplicates() {
+        MessageDedupIndex index = new MessageDedupIndex(100, ONE_HOUR_MS, 4);
+
+        assertTrue(index.add("m-1"));
+        assertFalse(index.add("m-1"));
+        assertTrue(index.contains("m-1"));
+        assertFalse(index.contains("m-2"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void evictsOldestIdWhenStripeIsFull() {
+        MessageDedupIndex index = new MessageDedupIndex(3, ONE_HOUR_MS, 1);
+        index.add("m-1");
+        index.add("m-2");
+        index.add("m-3");
+
+        assertTrue(index.add("m-4"));
+
+        assertFalse(index.contains("m-1"));
+        assertTrue(index.contains("m-2"));
+        assertTrue(index.contains("m-3"));
+        assertTrue(index.contains("m-4"));
+        assertEquals(3, index.size());
+    }
+
+    // Các id cùng ô gốc nằm liền nhau trong bảng (ở đây vòng qua cuối bảng);
+    // xóa id đầu chuỗi phải dời các id phía sau lên
+    @Test
+    void backwardShiftDeleteKeepsCollidingIdsReachable() {
+        int capacity = 4;
+        int tableMask = 7;
+        List<String> colliding = idsWithHomeSlot(6, tableMask, capacity + 2);
+        MessageDedupIndex index = new MessageDedupIndex(capacity, ONE_HOUR_MS, 1);
+        for (int i = 0; i < capacity; i++) {
+            assertTrue(index.add(colliding.get(i)));
+        }
+
+        index.add(colliding.get(capacity));
+        index.add(colliding.get(capacity + 1));
+
+        assertFalse(index.contains(colliding.get(0)));
+        assertFalse(index.contains(colliding.get(1)));
+        for (int i = 2; i < capacity + 2; i++) {
+            assertTrue(index.contains(colliding.get(i)), "id " + i + " must still be found");
+        }
+        assertEquals(capacity, index.size());
+    }
+
+    @Test
+    void manyEvictionsKeepOnlyMostRecentIds() {
+        int capacity = 64;
+        MessageDedupIndex index = new MessageDedupIndex(capacity, ONE_HOUR_MS, 1);
+        int total = 5_000;
+        for (int i = 0; i < total; i++) {
+            assertTrue(index.add("m-" + i));
+        }
+
+        for (int i = 0; i < total - capacity; i++) {
+            assertFalse(index.contains("m-" + i), "evicted id m-" + i + " is still present");
+        }
+        for (int i = total - capacity; i < total; i++) {
+            assertTrue(index.contains("m-" + i), "recent id m-" + i + " is missing");
+        }
+        assertEquals(capacity, index.size());
+    }
+
+    @Test
+    void expiredIdsAreEvicted() throws InterruptedException {
+        MessageDedupIndex index = new MessageDedupIndex(100, 20, 1);
+        index.add("m-1");
+
+        Thread.sleep(60);
+
+        assertFalse(index.contains("m-1"));
+        assertEquals(0, index.size());
+        assertTrue(index.add("m-1"));
+    }
+
+    @Test
+    void clearRemovesAllIds() {
+        MessageDedupIndex index = new MessageDedupIndex(100, ONE_HOUR_MS, 4);
+        for (int i = 0; i < 50; i++) {
+            index.add("m-" + i);
+        }
+
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertFalse(index.contains("m-1"));
+        assertTrue(index.add("m-1"));
+    }
+
+    private static List<String> idsWithHomeSlot(int slot, int mask, int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; ids.size() < count; i++) {
+            String id = "id-" + i;
+            if (((int) MessageDedupIndex.hash(id) & mask) == slot) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+}
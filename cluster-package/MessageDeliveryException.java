@@ -0,0 +1,9 @@
+package com.example.producer.service;
+
+// Tin nhắn không được cluster xác nhận sau khi đã thử lại tối đa
+public class MessageDeliveryException extends RuntimeException {
+
+    public MessageDeliveryException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.consumer.config;
+
+import com.example.consumer.model.Message;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Deserializer cho Message: giải mã nhị phân khi header "value-format" là "binary",
+ * ngược lại dùng JSON (tin nhắn từ producer cũ không có header này).
+ * Nếu có SkipPolicy, các record bị bỏ qua (trùng lặp, bị lọc) không được giải mã:
+ * giá trị trả về là null và lý do được ghi vào header "skip-reason".
+ */
+public class MessageDeserializer implements Deserializer<Message> {
+
+    public static final String VALUE_FORMAT_HEADER = "value-format";
+    public static final String SKIP_REASON_HEADER = "skip-reason";
+
+    private static final byte[] BINARY_HEADER_VALUE = "binary".getBytes(StandardCharsets.UTF_8);
+
+    // Quyết định bỏ qua record chỉ dựa vào header, trả về lý do hoặc null nếu cần giải mã
+    @FunctionalInterface
+    public interface SkipPolicy {
+        String skipReason(Headers headers);
+    }
+
+    private final JsonDeserializer<Message> jsonDeserializer = new JsonDeserializer<>(Message.class, false);
+    private final SkipPolicy skipPolicy;
+
+    public MessageDeserializer() {
+        this(null);
+    }
+
+    public MessageDeserializer(SkipPolicy skipPolicy) {
+        this.skipPolicy = skipPolicy;
+    }
+
+    @Override
+    public Message deserialize(String topic, byte[] data) {
+        return data == null ? null : jsonDeserializer.deserialize(topic, data);
+    }
+
+    @Override
+    public Message deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (skipPolicy != null) {
+            String reason = skipPolicy.skipReason(headers);
+            if (reason != null) {
+                headers.add(SKIP_REASON_HEADER, reason.getBytes(StandardCharsets.UTF_8));
+                return null;
+            }
+        }
+        Header format = headers.lastHeader(VALUE_FORMAT_HEADER);
+        if (format != null && Arrays.equals(format.value(), BINARY_HEADER_VALUE)) {
+            return MessageBinaryCodec.decode(data);
+        }
+        return jsonDeserializer.deserialize(topic, headers, data);
+    }
+
+    @Override
+    public void close() {
+        jsonDeserializer.close();
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.consumer.service;
+
+import com.example.consumer.config.MessageBinaryCodec;
+import com.example.consumer.model.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Nhật ký trên đĩa (memory-mapped) cho các tin nhắn đã xử lý, dùng để khôi phục lịch sử tin nhắn
+ * và chỉ mục chống trùng lặp khi khởi động lại mà không cần đọc lại topic từ đầu.
+ * Mỗi bản ghi có dạng [độ dài][crc32][định dạng][payload]; payload dùng MessageBinaryCodec, JSON nếu không mã hóa được.
+ * Định kỳ segment đang ghi được force xuống đĩa ngoài khóa ghi; offset đã bền vững (durableOffsets) là ảnh chụp
+ * offset theo partition lấy cùng lúc với vị trí được force, nên không bao giờ vượt quá dữ liệu đã nằm trên đĩa.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class MessageJournal {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int RECORD_HEADER_BYTES = 9;
+    private static final byte FORMAT_BINARY = 1;
+    private static final byte FORMAT_JSON = 2;
+
+    private final ReceivedMessageStore receivedMessages;
+    private final MessageDedupIndex processedMessageIds;
+    private final ObjectMapper objectMapper;
+
+    @Value("${kafka.consumer.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.consumer.journal.directory:./journal}")
+    private String directoryName;
+
+    @Value("${kafka.consumer.journal.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    // Số segment được giữ lại; các segment cũ hơn bị xóa khi chuyển segment
+    @Value("${kafka.consumer.journal.max-segments:4}")
+    private int maxSegments;
+
+    @Value("${kafka.consumer.journal.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    // Offset lớn nhất đã ghi vào nhật ký theo "topic-partition", cập nhật trong khóa ghi
+    private final Map<String, Long> journaledOffsets = new HashMap<>();
+    // Ảnh chụp journaledOffsets tại lần force gần nhất đã hoàn tất
+    private volatile Map<String, Long> durableOffsets = Collections.emptyMap();
+    private final LongAdder appendedMessages = new LongAdder();
+    private final LongAdder skippedMessages = new LongAdder();
+
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "consumer-journal-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Path directory;
+
+    // Segment đang ghi, chỉ thay đổi khi giữ khóa của đối tượng này
+    private volatile MappedByteBuffer active;
+    private volatile long activeSequence;
+    private volatile boolean dirty;
+
+    // Giữ trong lúc force và khi unmap segment cũ, để không force một vùng nhớ đã được giải phóng.
+    // Tách khỏi khóa ghi nên msync không chặn các listener thread
+    private final Object flushLock = new Object();
+
+    private volatile long restoredMessages;
+    private volatile long restoreTimeMs;
+
+    public MessageJournal(ReceivedMessageStore receivedMessages, MessageDedupIndex processedMessageIds,
+                          ObjectMapper objectMapper) {
+        this.receivedMessages = receivedMessages;
+        this.processedMessageIds = processedMessageIds;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Khôi phục trạng thái từ các segment trên đĩa. Chạy khi bean được tạo, trước khi các listener container khởi động.
+     */
+    @PostConstruct
+    public void restore() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        directory = Paths.get(directoryName);
+        Files.createDirectories(directory);
+        long start = System.currentTimeMillis();
+
+        List<Path> segments = listSegments();
+        long restored = 0;
+        int lastEnd = 0;
+        for (Path segment : segments) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (true) {
+                    Message message = readRecord(buffer, segment);
+                    if (message == null) {
+                        break;
+                    }
+                    receivedMessages.add(message);
+                    processedMessageIds.add(message.getId());
+                    restored++;
+                }
+                lastEnd = buffer.position();
+                unmap(buffer);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            activeSequence = 1;
+            openSegment(activeSequence, 0);
+        } else {
+            activeSequence = sequenceOf(segments.get(segments.size() - 1));
+            openSegment(activeSequence, lastEnd);
+        }
+        restoredMessages = restored;
+        restoreTimeMs = System.currentTimeMillis() - start;
+        log.info("Restored {} messages from {} journal segments in {} ms", restored, segments.size(), restoreTimeMs);
+
+        flushScheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Ghi tin nhắn đã xử lý vào nhật ký. Gọi trước khi offset của record được commit.
+     */
+    public void append(Message message, String topic, int partition, long offset) {
+        if (!enabled) {
+            return;
+        }
+        byte format = FORMAT_BINARY;
+        byte[] payload;
+        try {
+            payload = MessageBinaryCodec.encode(message);
+        } catch (IllegalArgumentException e) {
+            format = FORMAT_JSON;
+            try {
+                payload = objectMapper.writeValueAsBytes(message);
+            } catch (IOException ex) {
+                log.warn("Cannot journal message {}, it will not be restored after restart", message.getId(), ex);
+                skippedMessages.increment();
+                return;
+            }
+        }
+        if (payload.length + RECORD_HEADER_BYTES > segmentBytes) {
+            log.warn("Message {} ({} bytes) is larger than a journal segment, not journaled", message.getId(), payload.length);
+            skippedMessages.increment();
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(format);
+        crc.update(payload);
+
+        synchronized (this) {
+            try {
+                if (active.remaining() < RECORD_HEADER_BYTES + payload.length) {
+                    rollSegment();
+                }
+            } catch (IOException e) {
+                log.error("Failed to roll journal segment, message {} not journaled", message.getId(), e);
+                skippedMessages.increment();
+                return;
+            }
+            // Ghi payload trước rồi mới ghi độ dài, để bản ghi chưa ghi xong được đọc là điểm kết thúc
+            int recordStart = active.position();
+            active.position(recordStart + 4);
+            active.putInt((int) crc.getValue());
+            active.put(format);
+            active.put(payload);
+            active.putInt(recordStart, payload.length);
+            journaledOffsets.merge(topic + "-" + partition, offset, Math::max);
+            dirty = true;
+        }
+        appendedMessages.increment();
+    }
+
+    private Message readRecord(ByteBuffer buffer, Path segment) throws IOException {
+        if (buffer.remaining() < RECORD_HEADER_BYTES) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining() - (RECORD_HEADER_BYTES - 4)) {
+            // 0 là vùng chưa ghi của segment được cấp phát trước
+            buffer.position(start);
+            return null;
+        }
+        int expectedCrc = buffer.getInt();
+        byte format = buffer.get();
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(format);
+        crc.update(payload);
+        if ((int) crc.getValue() != expectedCrc) {
+            log.warn("Corrupted record in journal segment {} at position {}, ignoring the rest of the segment",
+                    segment.getFileName(), start);
+            buffer.position(start);
+            return null;
+        }
+        return format == FORMAT_BINARY ? MessageBinaryCodec.decode(payload) : objectMapper.readValue(payload, Message.class);
+    }
+
+    // Force segment đang ghi; ảnh chụp offset được lấy trong khóa ghi cùng với segment cần force,
+    // nên chỉ được công bố là bền vững sau khi dữ liệu tương ứng đã xuống đĩa
+    private void flush() {
+        if (!dirty) {
+            return;
+        }
+        MappedByteBuffer buffer;
+        Map<String, Long> offsets;
+        synchronized (this) {
+            dirty = false;
+            buffer = active;
+            offsets = new HashMap<>(journaledOffsets);
+        }
+        synchronized (flushLock) {
+            if (buffer != active) {
+                // Segment đã được force khi roll, vùng nhớ có thể đã được unmap
+                durableOffsets = offsets;
+                return;
+            }
+            buffer.force();
+        }
+        durableOffsets = offsets;
+    }
+
+    // Gọi trong khóa ghi. Segment cũ được force trước khi chuyển, nên flush thấy active đã đổi
+    // có thể coi ảnh chụp của mình là bền vững; việc unmap nằm trong flushLock để không trùng với force
+    private void rollSegment() throws IOException {
+        MappedByteBuffer previous = active;
+        synchronized (flushLock) {
+            previous.force();
+        }
+        activeSequence++;
+        openSegment(activeSequence, 0);
+        synchronized (flushLock) {
+            unmap(previous);
+        }
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+            log.info("Deleted old journal segment: {}", segments.get(i).getFileName());
+        }
+    }
+
+    private void openSegment(long sequence, int position) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            if (file.length() < segmentBytes) {
+                file.setLength(segmentBytes);
+            }
+            // Vùng nhớ được map vẫn hợp lệ sau khi đóng file
+            active = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+        }
+        active.position(position);
+    }
+
+    // Giải phóng vùng map ngay thay vì chờ GC, để segment bị xóa không còn chiếm bộ nhớ và file handle
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Không có invokeCleaner (Java 8) hoặc không được phép: vùng nhớ được giải phóng khi buffer bị GC
+            log.debug("Cannot unmap journal segment, leaving it to the garbage collector: {}", e.toString());
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        if (enabled) {
+            stats.put("appendedMessages", appendedMessages.sum());
+            stats.put("skippedMessages", skippedMessages.sum());
+            stats.put("restoredMessages", restoredMessages);
+            stats.put("restoreTimeMs", restoreTimeMs);
+            stats.put("activeSegment", activeSequence);
+            synchronized (this) {
+                stats.put("journaledOffsets", new TreeMap<>(journaledOffsets));
+            }
+            stats.put("durableOffsets", new TreeMap<>(durableOffsets));
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        flushScheduler.shutdownNow();
+        if (enabled) {
+            dirty = true;
+            flush();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.consumer.service;
+
+import com.example.consumer.config.MessageBinaryCodec;
+import com.example.consumer.model.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageJournalTest {
+
+    // Mọi tin nhắn trong test có id cùng độ dài nên mọi bản ghi có cùng kích thước
+    private static final int RECORD_BYTES = 9 + MessageBinaryCodec.encode(message("m-0")).length;
+
+    @TempDir
+    Path directory;
+
+    private final List<MessageJournal> journals = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() {
+        journals.forEach(MessageJournal::close);
+    }
+
+    @Test
+    void appendedMessagesAreRestoredAfterRestart() throws IOException {
+        MessageJournal journal = journal(1024, 4);
+        append(journal, "m-1", "m-2", "m-3");
+        journal.close();
+
+        ReceivedMessageStore restored = new ReceivedMessageStore(100);
+        MessageDedupIndex restoredIds = new MessageDedupIndex(100, 3_600_000, 1);
+        MessageJournal reopened = journal(restored, restoredIds, 1024, 4);
+
+        assertEquals(List.of("m-1", "m-2", "m-3"), ids(restored));
+        assertTrue(restoredIds.contains("m-2"));
+        assertEquals(3L, reopened.getStats().get("restoredMessages"));
+    }
+
+    // Độ dài được ghi sau cùng, nên bản ghi ghi dở có độ dài 0 và là điểm kết thúc;
+    // bản ghi tiếp theo được ghi đè lên đúng vị trí đó
+    @Test
+    void restoreStopsAtTornRecordAndAppendsOverIt() throws IOException {
+        MessageJournal journal = journal(1024, 4);
+        append(journal, "m-1", "m-2", "m-3");
+        journal.close();
+        overwriteInt(onlySegment(), 2L * RECORD_BYTES, 0);
+
+        ReceivedMessageStore restored = new ReceivedMessageStore(100);
+        MessageJournal reopened = journal(restored, new MessageDedupIndex(100, 3_600_000, 1), 1024, 4);
+        assertEquals(List.of("m-1", "m-2"), ids(restored));
+
+        append(reopened, "m-4");
+        reopened.close();
+        ReceivedMessageStore restoredAgain = new ReceivedMessageStore(100);
+        journal(restoredAgain, new MessageDedupIndex(100, 3_600_000, 1), 1024, 4);
+        assertEquals(List.of("m-1", "m-2", "m-4"), ids(restoredAgain));
+    }
+
+    @Test
+    void restoreStopsAtRecordWithBadChecksum() throws IOException {
+        MessageJournal journal = journal(1024, 4);
+        append(journal, "m-1", "m-2", "m-3");
+        journal.close();
+        // Đảo một byte trong payload của bản ghi thứ hai
+        try (RandomAccessFile file = new RandomAccessFile(onlySegment().toFile(), "rw")) {
+            long position = RECORD_BYTES + 9;
+            file.seek(position);
+            int original = file.read();
+            file.seek(position);
+            file.write(original ^ 0xFF);
+        }
+
+        ReceivedMessageStore restored = new ReceivedMessageStore(100);
+        MessageDedupIndex restoredIds = new MessageDedupIndex(100, 3_600_000, 1);
+        journal(restored, restoredIds, 1024, 4);
+
+        assertEquals(List.of("m-1"), ids(restored));
+        assertFalse(restoredIds.contains("m-3"));
+    }
+
+    @Test
+    void fullSegmentRollsOverToNextSegment() throws IOException {
+        MessageJournal journal = journal(3 * RECORD_BYTES, 10);
+        append(journal, "m-1", "m-2", "m-3", "m-4", "m-5", "m-6", "m-7");
+
+        assertEquals(3, segments().size());
+        assertEquals(3L, journal.getStats().get("activeSegment"));
+        journal.close();
+
+        ReceivedMessageStore restored = new ReceivedMessageStore(100);
+        journal(restored, new MessageDedupIndex(100, 3_600_000, 1), 3 * RECORD_BYTES, 10);
+        assertEquals(List.of("m-1", "m-2", "m-3", "m-4", "m-5", "m-6", "m-7"), ids(restored));
+    }
+
+    @Test
+    void rolloverDeletesSegmentsBeyondMaxSegments() throws IOException {
+        MessageJournal journal = journal(3 * RECORD_BYTES, 2);
+        append(journal, "m-1", "m-2", "m-3", "m-4", "m-5", "m-6", "m-7");
+        journal.close();
+
+        List<Path> segments = segments();
+        assertEquals(2, segments.size());
+        assertEquals("journal-00000000000000000002.seg", segments.get(0).getFileName().toString());
+
+        ReceivedMessageStore restored = new ReceivedMessageStore(100);
+        MessageDedupIndex restoredIds = new MessageDedupIndex(100, 3_600_000, 1);
+        journal(restored, restoredIds, 3 * RECORD_BYTES, 2);
+        assertEquals(List.of("m-4", "m-5", "m-6", "m-7"), ids(restored));
+        assertFalse(restoredIds.contains("m-1"));
+    }
+
+    private MessageJournal journal(int segmentBytes, int maxSegments) throws IOException {
+        return journal(new ReceivedMessageStore(100), new MessageDedupIndex(100, 3_600_000, 1), segmentBytes, maxSegments);
+    }
+
+    private MessageJournal journal(ReceivedMessageStore store, MessageDedupIndex ids,
+                                   int segmentBytes, int maxSegments) throws IOException {
+        MessageJournal journal = new MessageJournal(store, ids, new ObjectMapper());
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "directoryName", directory.toString());
+        ReflectionTestUtils.setField(journal, "segmentBytes", segmentBytes);
+        ReflectionTestUtils.setField(journal, "maxSegments", maxSegments);
+        ReflectionTestUtils.setField(journal, "flushIntervalMs", 60_000L);
+        journals.add(journal);
+        journal.restore();
+        return journal;
+    }
+
+    private static void append(MessageJournal journal, String... ids) {
+        long offset = 0;
+        for (String id : ids) {
+            journal.append(message(id), "messages", 0, offset++);
+        }
+    }
+
+    private Path onlySegment() throws IOException {
+        List<Path> segments = segments();
+        assertEquals(1, segments.size());
+        return segments.get(0);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.seg")) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static void overwriteInt(Path segment, long position, int value) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(position);
+            file.writeInt(value);
+        }
+    }
+
+    private static List<String> ids(ReceivedMessageStore store) {
+        return store.getAll().stream().map(Message::getId).collect(Collectors.toList());
+    }
+
+    private static Message message(String id) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent("content " + id);
+        message.setTimestamp(1_700_000_000_000L);
+        message.setType(Message.MessageType.DATA);
+        return message;
+    }
+}
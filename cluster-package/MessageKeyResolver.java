@@ -0,0 +1,57 @@
+package com.example.producer.service;
+
+import com.example.producer.model.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Chọn key cho record, từ đó quyết định partition và thứ tự xử lý phía consumer.
+ * Tin nhắn cùng key luôn vào cùng partition; key null để producer dùng sticky partitioner
+ * (gom lô theo partition, thông lượng cao nhất nhưng không giữ thứ tự theo thực thể).
+ */
+@Component
+@Profile("cluster")
+public class MessageKeyResolver {
+
+    public enum KeyStrategy {
+        ID,     // Key là id tin nhắn (phân tán ngẫu nhiên, như trước)
+        FIELD,  // Key là giá trị additionalData[kafka.producer.key.field], dùng id nếu thiếu
+        TYPE,   // Key là MessageType
+        NONE    // Không có key
+    }
+
+    private final KeyStrategy strategy;
+    private final String field;
+
+    public MessageKeyResolver(@Value("${kafka.producer.key.strategy:ID}") KeyStrategy strategy,
+                              @Value("${kafka.producer.key.field:}") String field) {
+        if (strategy == KeyStrategy.FIELD && field.isEmpty()) {
+            throw new IllegalArgumentException("kafka.producer.key.field is required for key strategy FIELD");
+        }
+        this.strategy = strategy;
+        this.field = field;
+    }
+
+    public String keyFor(Message message) {
+        switch (strategy) {
+            case FIELD:
+                Map<String, Object> data = message.getAdditionalData();
+                Object value = data == null ? null : data.get(field);
+                return value == null ? message.getId() : value.toString();
+            case TYPE:
+                return message.getType().name();
+            case NONE:
+                return null;
+            case ID:
+            default:
+                return message.getId();
+        }
+    }
+
+    public KeyStrategy getStrategy() {
+        return strategy;
+    }
+}
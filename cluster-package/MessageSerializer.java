@@ -0,0 +1,65 @@
+package com.example.producer.config;
+
+import com.example.producer.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Serializer cho Message hỗ trợ nhị phân (MessageBinaryCodec) hoặc JSON.
+ * Định dạng thực tế được ghi vào header "value-format" để consumer chọn cách giải mã;
+ * nếu additionalData chứa kiểu mà codec nhị phân không hỗ trợ thì tự động dùng JSON.
+ */
+@Slf4j
+public class MessageSerializer implements Serializer<Message> {
+
+    public static final String VALUE_FORMAT_CONFIG = "message.value.format";
+    public static final String VALUE_FORMAT_HEADER = "value-format";
+    public static final String FORMAT_BINARY = "binary";
+    public static final String FORMAT_JSON = "json";
+
+    private static final byte[] BINARY_HEADER_VALUE = FORMAT_BINARY.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_HEADER_VALUE = FORMAT_JSON.getBytes(StandardCharsets.UTF_8);
+
+    private final JsonSerializer<Message> jsonSerializer = new JsonSerializer<>();
+    private boolean binary;
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        jsonSerializer.configure(configs, isKey);
+        binary = FORMAT_BINARY.equalsIgnoreCase(String.valueOf(configs.get(VALUE_FORMAT_CONFIG)));
+    }
+
+    @Override
+    public byte[] serialize(String topic, Message data) {
+        return data == null ? null : jsonSerializer.serialize(topic, data);
+    }
+
+    @Override
+    public byte[] serialize(String topic, Headers headers, Message data) {
+        if (data == null) {
+            return null;
+        }
+        headers.remove(VALUE_FORMAT_HEADER);
+        if (binary) {
+            try {
+                byte[] encoded = MessageBinaryCodec.encode(data);
+                headers.add(VALUE_FORMAT_HEADER, BINARY_HEADER_VALUE);
+                return encoded;
+            } catch (IllegalArgumentException e) {
+                log.debug("Falling back to JSON for message {}: {}", data.getId(), e.getMessage());
+            }
+        }
+        headers.add(VALUE_FORMAT_HEADER, JSON_HEADER_VALUE);
+        return jsonSerializer.serialize(topic, headers, data);
+    }
+
+    @Override
+    public void close() {
+        jsonSerializer.close();
+    }
+}
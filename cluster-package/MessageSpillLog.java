@@ -0,0 +1,286 @@
+package com.example.producer.service;
+
+import com.example.producer.model.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Nhật ký ghi nối tiếp trên đĩa cho các tin nhắn không gửi được lên cluster.
+ * Mỗi bản ghi có dạng [độ dài][crc32][tin nhắn JSON]; fsync được gom theo chu kỳ.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class MessageSpillLog {
+
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final long segmentBytes;
+    private final long fsyncIntervalMs;
+    private final int replayBatchSize;
+
+    private final ScheduledExecutorService fsyncScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "producer-spill-fsync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService replayExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "producer-spill-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean replaying = new AtomicBoolean(false);
+    private final LongAdder spilledMessages = new LongAdder();
+    private final LongAdder replayedMessages = new LongAdder();
+
+    // Segment đang ghi, chỉ thay đổi khi giữ khóa của đối tượng này
+    private FileChannel activeChannel;
+    private long activeSequence;
+    private long activeSize;
+    private volatile boolean dirty;
+
+    public MessageSpillLog(ObjectMapper objectMapper,
+                           @Value("${kafka.producer.spill.directory:./spill}") String directory,
+                           @Value("${kafka.producer.spill.segment-bytes:67108864}") long segmentBytes,
+                           @Value("${kafka.producer.spill.fsync-interval-ms:200}") long fsyncIntervalMs,
+                           @Value("${kafka.producer.spill.replay-batch-size:500}") int replayBatchSize) {
+        this.objectMapper = objectMapper;
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        this.replayBatchSize = replayBatchSize;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        long lastSequence = 0;
+        for (Path segment : listSegments()) {
+            lastSequence = Math.max(lastSequence, sequenceOf(segment));
+        }
+        activeSequence = lastSequence;
+        openNextSegment();
+        fsyncScheduler.scheduleWithFixedDelay(this::fsync, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void append(Message message) throws IOException {
+        byte[] payload = objectMapper.writeValueAsBytes(message);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        buffer.flip();
+
+        if (activeSize > 0 && activeSize + buffer.remaining() > segmentBytes) {
+            rollSegment();
+        }
+        while (buffer.hasRemaining()) {
+            activeSize += activeChannel.write(buffer);
+        }
+        dirty = true;
+        spilledMessages.increment();
+    }
+
+    public void replayAsync(Function<List<Message>, CompletableFuture<?>> sink) {
+        replayExecutor.execute(() -> replay(sink));
+    }
+
+    /**
+     * Phát lại toàn bộ các segment đã đóng theo từng lô.
+     * {@code sink} trả về future hoàn tất khi cả lô đã được gửi thành công hoặc đã được ghi lại vào nhật ký;
+     * segment chỉ bị xóa sau khi tất cả các lô của nó đã hoàn tất.
+     */
+    public void replay(Function<List<Message>, CompletableFuture<?>> sink) {
+        if (!replaying.compareAndSet(false, true)) {
+            log.info("Spill log replay already in progress");
+            return;
+        }
+        try {
+            List<Path> segments;
+            synchronized (this) {
+                if (activeSize > 0) {
+                    rollSegment();
+                }
+                segments = listSegments();
+                segments.removeIf(segment -> sequenceOf(segment) == activeSequence);
+            }
+            for (Path segment : segments) {
+                replaySegment(segment, sink);
+                Files.deleteIfExists(segment);
+            }
+        } catch (Exception e) {
+            log.error("Spill log replay stopped, remaining segments will be replayed later", e);
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    private void replaySegment(Path segment, Function<List<Message>, CompletableFuture<?>> sink) throws IOException {
+        log.info("Replaying spilled messages from segment: {}", segment.getFileName());
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        List<Message> batch = new ArrayList<>(replayBatchSize);
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            while (true) {
+                header.clear();
+                if (!readFully(channel, header)) {
+                    break;
+                }
+                header.flip();
+                int length = header.getInt();
+                int expectedCrc = header.getInt();
+
+                if (length < 0 || length > channel.size() - channel.position()) {
+                    log.warn("Truncated record at end of spill segment: {}", segment.getFileName());
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (!readFully(channel, payload)) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != expectedCrc) {
+                    log.error("Corrupted record in spill segment: {}, skipping rest of segment", segment.getFileName());
+                    break;
+                }
+
+                batch.add(objectMapper.readValue(payload.array(), Message.class));
+                if (batch.size() >= replayBatchSize) {
+                    awaitBatch(sink, batch);
+                    batch = new ArrayList<>(replayBatchSize);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            awaitBatch(sink, batch);
+        }
+    }
+
+    private void awaitBatch(Function<List<Message>, CompletableFuture<?>> sink, List<Message> batch) {
+        // Lỗi giao hàng không làm dừng phát lại vì tin nhắn lỗi đã được ghi lại vào segment mới
+        sink.apply(batch).handle((result, ex) -> null).join();
+        replayedMessages.add(batch.size());
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void fsync() {
+        if (!dirty) {
+            return;
+        }
+        FileChannel channel;
+        synchronized (this) {
+            channel = activeChannel;
+            dirty = false;
+        }
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // Segment đã được đóng (và force) khi chuyển sang segment mới
+        } catch (IOException e) {
+            dirty = true;
+            log.error("Failed to fsync spill segment", e);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        activeChannel.force(false);
+        activeChannel.close();
+        openNextSegment();
+    }
+
+    private void openNextSegment() throws IOException {
+        activeSequence++;
+        activeChannel = FileChannel.open(segmentPath(activeSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeSize = activeChannel.size();
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("spilledMessages", spilledMessages.sum());
+        stats.put("replayedMessages", replayedMessages.sum());
+        stats.put("replaying", replaying.get());
+        long bytesOnDisk = 0;
+        try {
+            for (Path segment : listSegments()) {
+                bytesOnDisk += Files.size(segment);
+            }
+        } catch (IOException e) {
+            log.warn("Could not compute spill log size", e);
+        }
+        stats.put("spillBytesOnDisk", bytesOnDisk);
+        return stats;
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        fsyncScheduler.shutdownNow();
+        replayExecutor.shutdownNow();
+        activeChannel.force(false);
+        activeChannel.close();
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.producer.service;
+
+import com.example.producer.model.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MessageSpillLogTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    private final List<MessageSpillLog> spillLogs = new ArrayList<>();
+
+    @AfterEach
+    void closeSpillLogs() throws IOException {
+        for (MessageSpillLog spillLog : spillLogs) {
+            spillLog.close();
+        }
+    }
+
+    @Test
+    void replayReturnsAppendedMessagesInOrderAndDeletesSegment() throws IOException {
+        MessageSpillLog spillLog = spillLog(1 << 20);
+        append(spillLog, "m-1", "m-2", "m-3");
+        List<List<String>> batches = new ArrayList<>();
+
+        spillLog.replay(batch -> {
+            batches.add(ids(batch));
+            return CompletableFuture.completedFuture(null);
+        });
+
+        // Lô tối đa 2 tin nhắn
+        assertEquals(List.of(List.of("m-1", "m-2"), List.of("m-3")), batches);
+        assertEquals(3L, spillLog.getStats().get("replayedMessages"));
+        // Chỉ còn segment đang ghi, rỗng
+        assertEquals(1, segments().size());
+        assertEquals(0L, spillLog.getStats().get("spillBytesOnDisk"));
+    }
+
+    @Test
+    void replayStopsAtTruncatedTailRecord() throws IOException {
+        MessageSpillLog spillLog = spillLog(1 << 20);
+        append(spillLog, "m-1", "m-2");
+        spillLogs.remove(spillLog);
+        spillLog.close();
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        assertEquals(List.of("m-1"), replayAll(spillLog(1 << 20)));
+    }
+
+    @Test
+    void replayStopsAtRecordWithBadChecksum() throws IOException {
+        MessageSpillLog spillLog = spillLog(1 << 20);
+        append(spillLog, "m-1", "m-2", "m-3");
+        spillLogs.remove(spillLog);
+        spillLog.close();
+        // Đảo một byte trong payload của bản ghi thứ hai
+        try (RandomAccessFile file = new RandomAccessFile(segments().get(0).toFile(), "rw")) {
+            long position = recordBytes() + 8;
+            file.seek(position);
+            int original = file.read();
+            file.seek(position);
+            file.write(original ^ 0xFF);
+        }
+
+        assertEquals(List.of("m-1"), replayAll(spillLog(1 << 20)));
+    }
+
+    @Test
+    void segmentRollsWhenNextRecordWouldExceedSizeLimit() throws IOException {
+        MessageSpillLog spillLog = spillLog(2 * recordBytes());
+        append(spillLog, "m-1", "m-2", "m-3", "m-4", "m-5");
+
+        List<Path> segments = segments();
+        assertEquals(3, segments.size());
+        assertEquals(2L * recordBytes(), Files.size(segments.get(0)));
+        assertEquals(2L * recordBytes(), Files.size(segments.get(1)));
+        assertEquals((long) recordBytes(), Files.size(segments.get(2)));
+        assertEquals(List.of("m-1", "m-2", "m-3", "m-4", "m-5"), replayAll(spillLog));
+    }
+
+    // Gửi bị từ chối (backpressure) làm dừng phát lại; segment được giữ để lần phát lại sau gửi tiếp
+    @Test
+    void segmentIsKeptWhenReplayedSendFails() throws IOException {
+        MessageSpillLog spillLog = spillLog(1 << 20);
+        append(spillLog, "m-1", "m-2");
+
+        spillLog.replay(batch -> {
+            throw new ProducerBackpressureException("pending store is full");
+        });
+
+        assertEquals(2, segments().size());
+        assertEquals(0L, spillLog.getStats().get("replayedMessages"));
+        assertEquals(List.of("m-1", "m-2"), replayAll(spillLog));
+        assertEquals(1, segments().size());
+    }
+
+    private MessageSpillLog spillLog(long segmentBytes) throws IOException {
+        MessageSpillLog spillLog = new MessageSpillLog(OBJECT_MAPPER, directory.toString(), segmentBytes, 60_000, 2);
+        spillLogs.add(spillLog);
+        spillLog.open();
+        return spillLog;
+    }
+
+    private static void append(MessageSpillLog spillLog, String... ids) throws IOException {
+        for (String id : ids) {
+            spillLog.append(message(id));
+        }
+    }
+
+    private static List<String> replayAll(MessageSpillLog spillLog) {
+        List<String> replayed = new ArrayList<>();
+        spillLog.replay(batch -> {
+            replayed.addAll(ids(batch));
+            return CompletableFuture.completedFuture(null);
+        });
+        return replayed;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "spill-*.log")) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    // Mọi tin nhắn trong test có id cùng độ dài nên mọi bản ghi có cùng kích thước
+    private static int recordBytes() throws IOException {
+        return 8 + OBJECT_MAPPER.writeValueAsBytes(message("m-0")).length;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).collect(Collectors.toList());
+    }
+
+    private static Message message(String id) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent("content " + id);
+        message.setTimestamp(1_700_000_000_000L);
+        message.setType(Message.MessageType.DATA);
+        return message;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.producer.service;
+
+import com.example.producer.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.PartitionInfo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Theo dõi tải (số tin nhắn và số byte) đã được xác nhận trên từng partition theo cửa sổ thời gian
+ * và cảnh báo khi partition nóng nhất vượt quá warn-ratio lần mức trung bình.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class PartitionLoadTracker {
+
+    private final KafkaTemplate<String, Message> clusterKafkaTemplate;
+
+    @Value("${kafka.topic.name}")
+    private String topicName;
+
+    @Value("${kafka.producer.skew.window-ms:60000}")
+    private long windowMs;
+
+    @Value("${kafka.producer.skew.warn-ratio:1.5}")
+    private double warnRatio;
+
+    private final Map<Integer, PartitionLoad> current = new ConcurrentHashMap<>();
+
+    // Kết quả của cửa sổ vừa kết thúc, được thay thế toàn bộ sau mỗi cửa sổ
+    private volatile Map<String, Object> lastWindow = new HashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "producer-partition-skew");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PartitionLoadTracker(KafkaTemplate<String, Message> clusterKafkaTemplate) {
+        this.clusterKafkaTemplate = clusterKafkaTemplate;
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleAtFixedRate(this::rollWindow, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void record(int partition, int serializedBytes) {
+        PartitionLoad load = current.computeIfAbsent(partition, p -> new PartitionLoad());
+        load.messages.increment();
+        load.bytes.add(Math.max(0, serializedBytes));
+    }
+
+    private void rollWindow() {
+        Map<Integer, long[]> loads = new TreeMap<>();
+        current.forEach((partition, load) -> loads.put(partition, new long[]{load.messages.sumThenReset(), load.bytes.sumThenReset()}));
+        // Partition không nhận được tin nhắn nào cũng phải được tính vào mức trung bình
+        try {
+            for (PartitionInfo info : clusterKafkaTemplate.partitionsFor(topicName)) {
+                loads.putIfAbsent(info.partition(), new long[2]);
+            }
+        } catch (Exception e) {
+            log.debug("Could not fetch partitions for topic {}, skew is computed over active partitions only", topicName, e);
+        }
+
+        long totalMessages = 0;
+        long maxMessages = 0;
+        int hottest = -1;
+        Map<Integer, Map<String, Long>> perPartition = new TreeMap<>();
+        for (Map.Entry<Integer, long[]> entry : loads.entrySet()) {
+            long messages = entry.getValue()[0];
+            totalMessages += messages;
+            if (messages > maxMessages) {
+                maxMessages = messages;
+                hottest = entry.getKey();
+            }
+            Map<String, Long> stats = new HashMap<>();
+            stats.put("messages", messages);
+            stats.put("bytes", entry.getValue()[1]);
+            perPartition.put(entry.getKey(), stats);
+        }
+
+        // Tỉ lệ giữa partition nóng nhất và mức trung bình; 1.0 là phân bố đều
+        double mean = loads.isEmpty() ? 0 : (double) totalMessages / loads.size();
+        double skew = mean == 0 ? 1.0 : maxMessages / mean;
+        if (skew > warnRatio) {
+            log.warn("Partition load skew {} over last {} ms: partition {} handled {} of {} messages",
+                    String.format("%.2f", skew), windowMs, hottest, maxMessages, totalMessages);
+        }
+
+        Map<String, Object> window = new HashMap<>();
+        window.put("windowMs", windowMs);
+        window.put("skewRatio", skew);
+        window.put("hottestPartition", hottest);
+        window.put("partitions", perPartition);
+        lastWindow = window;
+    }
+
+    public Map<String, Object> getStats() {
+        return lastWindow;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static final class PartitionLoad {
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+}
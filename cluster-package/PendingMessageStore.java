@@ -0,0 +1,340 @@
+package com.example.producer.service;
+
+import com.example.producer.model.Message;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component
+@Slf4j
+@Profile("cluster")
+public class PendingMessageStore {
+
+    public enum BackpressurePolicy {
+        BLOCK,       // Chờ đến khi có chỗ trống (tối đa block-timeout-ms)
+        FAIL_FAST,   // Từ chối ngay tin nhắn mới
+        SHED_OLDEST  // Loại bỏ các tin nhắn cũ nhất để nhận tin nhắn mới
+    }
+
+    // Tổng dung lượng (ước lượng) tối đa của các tin nhắn đang chờ xác nhận
+    @Value("${kafka.producer.pending.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${kafka.producer.pending.backpressure-policy:BLOCK}")
+    private BackpressurePolicy policy;
+
+    @Value("${kafka.producer.pending.block-timeout-ms:5000}")
+    private long blockTimeoutMs;
+
+    private final Map<String, PendingRecord> records = new ConcurrentHashMap<>();
+
+    // Thứ tự thêm vào, dùng để tìm tin nhắn cũ nhất khi SHED_OLDEST
+    private final ConcurrentSkipListMap<Long, PendingRecord> insertionOrder = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong bytesInUse = new AtomicLong();
+    private final Object capacityMonitor = new Object();
+    private final LongAdder rejectedMessages = new LongAdder();
+    private final LongAdder shedMessages = new LongAdder();
+
+    /**
+     * Thêm tin nhắn vào bộ nhớ chờ, áp dụng chính sách backpressure khi vượt ngân sách bộ nhớ.
+     * Các tin nhắn cũ bị loại bỏ (SHED_OLDEST) được thêm vào {@code shed} để người gọi xử lý tiếp.
+     */
+    public PendingRecord add(Message message, List<PendingRecord> shed) {
+        return add(message, shed, true);
+    }
+
+    /**
+     * Như {@link #add(Message, List)}; với {@code mayBlock = false} chính sách BLOCK được xử lý như FAIL_FAST,
+     * dành cho các thread nền không được phép chờ (ví dụ thread xả của MessageCoalescer).
+     */
+    public PendingRecord add(Message message, List<PendingRecord> shed, boolean mayBlock) {
+        long size = estimateBytes(message);
+        if (size > maxBytes) {
+            rejectedMessages.increment();
+            throw new ProducerBackpressureException(
+                    "Message " + message.getId() + " (" + size + " bytes) exceeds pending memory budget");
+        }
+
+        reserve(size, shed, mayBlock);
+
+        // Thay thế và đăng ký thứ tự trong cùng một thao tác trên map, để hai lần gửi cùng id
+        // không cùng giữ chỗ mà chỉ một bên được trả lại
+        PendingRecord record = new PendingRecord(message, size, sequence.incrementAndGet());
+        PendingRecord[] replaced = new PendingRecord[1];
+        records.compute(message.getId(), (id, previous) -> {
+            replaced[0] = previous;
+            if (previous != null) {
+                insertionOrder.remove(previous.getSequence());
+            }
+            insertionOrder.put(record.getSequence(), record);
+            return record;
+        });
+        PendingRecord previous = replaced[0];
+        if (previous != null) {
+            // Lần thử lại đã lên lịch của bản cũ không được gửi nữa
+            previous.state.set(PendingRecord.SHED);
+            release(previous.getSizeBytes());
+            log.warn("Message [{}] was already pending, replacing it", message.getId());
+            previous.getDelivery().completeExceptionally(new MessageDeliveryException(
+                    "Message " + message.getId() + " was replaced by a newer send with the same id"));
+        }
+        return record;
+    }
+
+    public PendingRecord get(String messageId) {
+        return records.get(messageId);
+    }
+
+    public PendingRecord remove(String messageId) {
+        PendingRecord record = records.get(messageId);
+        return record != null && remove(record) ? record : null;
+    }
+
+    // Chỉ xóa nếu bản ghi vẫn là bản đang chờ (không bị thay thế bởi tin nhắn mới cùng id)
+    public boolean remove(PendingRecord record) {
+        boolean[] removed = new boolean[1];
+        records.computeIfPresent(record.getMessage().getId(), (id, current) -> {
+            if (current != record) {
+                return current;
+            }
+            insertionOrder.remove(record.getSequence());
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0]) {
+            release(record.getSizeBytes());
+        }
+        return removed[0];
+    }
+
+    public Collection<PendingRecord> all() {
+        return records.values();
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public long bytesInUse() {
+        return bytesInUse.get();
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    private void reserve(long size, List<PendingRecord> shed, boolean mayBlock) {
+        if (tryReserve(size)) {
+            return;
+        }
+
+        BackpressurePolicy effective = policy == BackpressurePolicy.BLOCK && !mayBlock
+                ? BackpressurePolicy.FAIL_FAST : policy;
+        switch (effective) {
+            case FAIL_FAST:
+                rejectedMessages.increment();
+                throw new ProducerBackpressureException("Pending message memory budget exhausted");
+            case SHED_OLDEST:
+                // Chỉ loại các tin nhắn đã gửi thất bại và đang chờ thử lại: tin nhắn đang gửi có thể vẫn được
+                // broker xác nhận, nếu chuyển xuống đĩa thì sẽ bị gửi lại lần thứ hai khi phát lại
+                while (!tryReserve(size)) {
+                    PendingRecord evicted = oldestSheddable();
+                    if (evicted == null) {
+                        rejectedMessages.increment();
+                        throw new ProducerBackpressureException(
+                                "Pending message memory budget exhausted and no failed message can be shed");
+                    }
+                    if (remove(evicted)) {
+                        shedMessages.increment();
+                        shed.add(evicted);
+                    }
+                }
+                return;
+            case BLOCK:
+            default:
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+                synchronized (capacityMonitor) {
+                    while (!tryReserve(size)) {
+                        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                        if (remainingMs <= 0) {
+                            rejectedMessages.increment();
+                            throw new ProducerBackpressureException(
+                                    "Timed out after " + blockTimeoutMs + " ms waiting for pending message memory");
+                        }
+                        try {
+                            capacityMonitor.wait(remainingMs);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            rejectedMessages.increment();
+                            throw new ProducerBackpressureException("Interrupted while waiting for pending message memory");
+                        }
+                    }
+                }
+        }
+    }
+
+    private PendingRecord oldestSheddable() {
+        for (PendingRecord candidate : insertionOrder.values()) {
+            if (candidate.markShed()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean tryReserve(long size) {
+        while (true) {
+            long current = bytesInUse.get();
+            if (current + size > maxBytes) {
+                return false;
+            }
+            if (bytesInUse.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(long size) {
+        bytesInUse.addAndGet(-size);
+        if (policy == BackpressurePolicy.BLOCK) {
+            synchronized (capacityMonitor) {
+                capacityMonitor.notifyAll();
+            }
+        }
+    }
+
+    // Ước lượng kích thước trên heap của tin nhắn, bao gồm cả additionalData
+    static long estimateBytes(Message message) {
+        long size = 64;
+        size += estimateString(message.getId());
+        size += estimateString(message.getContent());
+        if (message.getAdditionalData() != null) {
+            size += estimateValue(message.getAdditionalData());
+        }
+        return size;
+    }
+
+    private static long estimateString(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    private static long estimateValue(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return estimateString((String) value);
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return 16;
+        }
+        if (value instanceof Map) {
+            long size = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += 32 + estimateValue(entry.getKey()) + estimateValue(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 40;
+            for (Object element : (Collection<?>) value) {
+                size += 8 + estimateValue(element);
+            }
+            return size;
+        }
+        return 64;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pendingMessages", records.size());
+        stats.put("pendingBytes", bytesInUse.get());
+        stats.put("maxPendingBytes", maxBytes);
+        stats.put("backpressurePolicy", policy.name());
+        stats.put("rejectedMessages", rejectedMessages.sum());
+        stats.put("shedMessages", shedMessages.sum());
+        return stats;
+    }
+
+    // Tin nhắn đang chờ xác nhận cùng trạng thái thử lại của nó
+    @Getter
+    public static class PendingRecord {
+        private static final int IN_FLIGHT = 0;  // Đang chờ kết quả từ broker
+        private static final int WAITING = 1;    // Đã gửi thất bại, đang chờ lần thử lại
+        private static final int SHED = 2;       // Đã bị loại khỏi bộ nhớ chờ, không được gửi lại
+        private static final long STATE_MASK = 3;
+
+        private final Message message;
+        private final long sizeBytes;
+        private final long sequence;
+        private final long createdAt = System.currentTimeMillis();
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        // Hoàn tất khi broker xác nhận, hoặc thất bại khi tin nhắn bị chuyển sang nhật ký trên đĩa
+        private final CompletableFuture<RecordMetadata> delivery = new CompletableFuture<>();
+
+        // Trạng thái ở 2 bit thấp, các bit còn lại đếm số lần chuyển sang WAITING; nhờ đó lần thử lại
+        // đã lên lịch nhận ra tin nhắn đã được gửi lại bằng cách khác trong lúc chờ
+        @Getter(AccessLevel.NONE)
+        private final AtomicLong state = new AtomicLong(IN_FLIGHT);
+
+        PendingRecord(Message message, long sizeBytes, long sequence) {
+            this.message = message;
+            this.sizeBytes = sizeBytes;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Gọi khi lần gửi thất bại và tin nhắn sẽ được thử lại. Trả về vé cho lần thử lại đã lên lịch,
+         * hoặc -1 nếu tin nhắn không còn đang gửi (đã bị loại hoặc thay thế).
+         */
+        public long markWaiting() {
+            while (true) {
+                long current = state.get();
+                if ((current & STATE_MASK) != IN_FLIGHT) {
+                    return -1;
+                }
+                long waiting = (((current >>> 2) + 1) << 2) | WAITING;
+                if (state.compareAndSet(current, waiting)) {
+                    return waiting;
+                }
+            }
+        }
+
+        // Lần thử lại đã lên lịch: chỉ gửi nếu tin nhắn vẫn đang chờ đúng lần chờ đã cấp vé
+        public boolean markInFlight(long waitingTicket) {
+            return waitingTicket >= 0 && state.compareAndSet(waitingTicket, (waitingTicket & ~STATE_MASK) | IN_FLIGHT);
+        }
+
+        // Gửi lại ngay một tin nhắn đang chờ thử lại; lần thử lại đã lên lịch của nó sẽ bị bỏ qua.
+        // Trả về false nếu tin nhắn đang gửi hoặc đã bị loại
+        public boolean markInFlight() {
+            long current = state.get();
+            return (current & STATE_MASK) == WAITING
+                    && state.compareAndSet(current, (current & ~STATE_MASK) | IN_FLIGHT);
+        }
+
+        boolean markShed() {
+            long current = state.get();
+            return (current & STATE_MASK) == WAITING && state.compareAndSet(current, SHED);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.producer.service;
+
+import com.example.producer.model.Message;
+import com.example.producer.service.PendingMessageStore.BackpressurePolicy;
+import com.example.producer.service.PendingMessageStore.PendingRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingMessageStoreTest {
+
+    // Mọi tin nhắn trong test có id và nội dung cùng độ dài nên có cùng kích thước ước lượng
+    private static final long MESSAGE_BYTES = PendingMessageStore.estimateBytes(message("m-0"));
+
+    @Test
+    void addAndRemoveTrackBytesInUse() {
+        PendingMessageStore store = store(BackpressurePolicy.FAIL_FAST, 10);
+        PendingRecord first = store.add(message("m-1"), new ArrayList<>());
+        store.add(message("m-2"), new ArrayList<>());
+        assertEquals(2 * MESSAGE_BYTES, store.bytesInUse());
+
+        assertTrue(store.remove(first));
+        assertFalse(store.remove(first));
+        assertEquals(MESSAGE_BYTES, store.bytesInUse());
+
+        assertEquals("m-2", store.remove("m-2").getMessage().getId());
+        assertNull(store.remove("m-2"));
+        assertEquals(0, store.bytesInUse());
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    void replacingSameIdReleasesPreviousReservation() {
+        PendingMessageStore store = store(BackpressurePolicy.FAIL_FAST, 10);
+        PendingRecord previous = store.add(message("m-1"), new ArrayList<>());
+
+        PendingRecord current = store.add(message("m-1"), new ArrayList<>());
+
+        assertEquals(MESSAGE_BYTES, store.bytesInUse());
+        assertEquals(1, store.size());
+        assertSame(current, store.get("m-1"));
+        assertTrue(previous.getDelivery().isCompletedExceptionally());
+        assertFalse(previous.markInFlight());
+        // Bản cũ đã được thay thế nên xóa nó không được trả lại chỗ lần thứ hai
+        assertFalse(store.remove(previous));
+        assertEquals(MESSAGE_BYTES, store.bytesInUse());
+    }
+
+    @Test
+    void rejectsMessageLargerThanBudget() {
+        PendingMessageStore store = store(BackpressurePolicy.SHED_OLDEST, 0);
+        ReflectionTestUtils.setField(store, "maxBytes", MESSAGE_BYTES - 1);
+
+        assertThrows(ProducerBackpressureException.class, () -> store.add(message("m-1"), new ArrayList<>()));
+        assertEquals(0, store.bytesInUse());
+    }
+
+    @Test
+    void failFastRejectsWithoutChangingBytesInUse() {
+        PendingMessageStore store = store(BackpressurePolicy.FAIL_FAST, 2);
+        store.add(message("m-1"), new ArrayList<>());
+        store.add(message("m-2"), new ArrayList<>());
+
+        assertThrows(ProducerBackpressureException.class, () -> store.add(message("m-3"), new ArrayList<>()));
+
+        assertEquals(2 * MESSAGE_BYTES, store.bytesInUse());
+        assertNull(store.get("m-3"));
+        assertEquals(1L, store.getStats().get("rejectedMessages"));
+    }
+
+    @Test
+    void blockTimesOutWithoutChangingBytesInUse() {
+        PendingMessageStore store = store(BackpressurePolicy.BLOCK, 1);
+        ReflectionTestUtils.setField(store, "blockTimeoutMs", 50L);
+        store.add(message("m-1"), new ArrayList<>());
+
+        long start = System.nanoTime();
+        assertThrows(ProducerBackpressureException.class, () -> store.add(message("m-2"), new ArrayList<>()));
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        assertEquals(MESSAGE_BYTES, store.bytesInUse());
+    }
+
+    @Test
+    void blockWaitsUntilCapacityIsReleased() throws Exception {
+        PendingMessageStore store = store(BackpressurePolicy.BLOCK, 1);
+        ReflectionTestUtils.setField(store, "blockTimeoutMs", 5_000L);
+        PendingRecord first = store.add(message("m-1"), new ArrayList<>());
+
+        CompletableFuture<PendingRecord> second = CompletableFuture.supplyAsync(
+                () -> store.add(message("m-2"), new ArrayList<>()));
+        Thread.sleep(50);
+        assertFalse(second.isDone());
+        store.remove(first);
+
+        assertEquals("m-2", second.get(5, TimeUnit.SECONDS).getMessage().getId());
+        assertEquals(MESSAGE_BYTES, store.bytesInUse());
+    }
+
+    @Test
+    void blockPolicyFailsFastForCallersThatMayNotBlock() {
+        PendingMessageStore store = store(BackpressurePolicy.BLOCK, 1);
+        ReflectionTestUtils.setField(store, "blockTimeoutMs", 5_000L);
+        store.add(message("m-1"), new ArrayList<>());
+
+        long start = System.nanoTime();
+        assertThrows(ProducerBackpressureException.class, () -> store.add(message("m-2"), new ArrayList<>(), false));
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+        assertEquals(MESSAGE_BYTES, store.bytesInUse());
+    }
+
+    @Test
+    void shedOldestEvictsOnlyWaitingRecords() {
+        PendingMessageStore store = store(BackpressurePolicy.SHED_OLDEST, 2);
+        PendingRecord first = store.add(message("m-1"), new ArrayList<>());
+        PendingRecord second = store.add(message("m-2"), new ArrayList<>());
+
+        // Cả hai đang gửi: không có gì để loại
+        assertThrows(ProducerBackpressureException.class, () -> store.add(message("m-3"), new ArrayList<>()));
+        assertEquals(2 * MESSAGE_BYTES, store.bytesInUse());
+
+        second.markWaiting();
+        List<PendingRecord> shed = new ArrayList<>();
+        store.add(message("m-3"), shed);
+
+        assertEquals(1, shed.size());
+        assertSame(second, shed.get(0));
+        assertFalse(second.markInFlight());
+        assertNull(store.get("m-2"));
+        assertSame(first, store.get("m-1"));
+        assertEquals(2 * MESSAGE_BYTES, store.bytesInUse());
+        assertEquals(1L, store.getStats().get("shedMessages"));
+    }
+
+    @Test
+    void shedOldestPrefersOldestWaitingRecord() {
+        PendingMessageStore store = store(BackpressurePolicy.SHED_OLDEST, 2);
+        PendingRecord first = store.add(message("m-1"), new ArrayList<>());
+        PendingRecord second = store.add(message("m-2"), new ArrayList<>());
+        first.markWaiting();
+        second.markWaiting();
+
+        List<PendingRecord> shed = new ArrayList<>();
+        store.add(message("m-3"), shed);
+
+        assertEquals(List.of(first), shed);
+        assertTrue(second.markInFlight());
+        assertEquals(2 * MESSAGE_BYTES, store.bytesInUse());
+    }
+
+    // resend-pending gửi lại tin nhắn đang chờ thử lại: lần thử lại đã lên lịch phải bỏ qua,
+    // và tin nhắn đang chờ broker xác nhận không được gửi thêm lần nào
+    @Test
+    void recordWithScheduledRetryIsSentOnlyOnce() {
+        PendingMessageStore store = store(BackpressurePolicy.FAIL_FAST, 10);
+        PendingRecord record = store.add(message("m-1"), new ArrayList<>());
+        AtomicInteger sends = new AtomicInteger(1);
+
+        assertFalse(record.markInFlight(), "a record waiting for its first ack must not be resent");
+
+        long scheduledRetry = record.markWaiting();
+        if (record.markInFlight()) {
+            sends.incrementAndGet();
+        }
+        if (record.markInFlight(scheduledRetry)) {
+            sends.incrementAndGet();
+        }
+        if (record.markInFlight()) {
+            sends.incrementAndGet();
+        }
+
+        // Lần gửi đầu và đúng một lần gửi lại sau thất bại
+        assertEquals(2, sends.get());
+    }
+
+    @Test
+    void staleRetryTicketIsIgnoredAfterAnotherFailure() {
+        PendingMessageStore store = store(BackpressurePolicy.FAIL_FAST, 10);
+        PendingRecord record = store.add(message("m-1"), new ArrayList<>());
+
+        long firstRetry = record.markWaiting();
+        assertTrue(record.markInFlight());
+        long secondRetry = record.markWaiting();
+
+        assertFalse(record.markInFlight(firstRetry));
+        assertTrue(record.markInFlight(secondRetry));
+        assertFalse(record.markInFlight(secondRetry));
+    }
+
+    private static PendingMessageStore store(BackpressurePolicy policy, int messages) {
+        PendingMessageStore store = new PendingMessageStore();
+        ReflectionTestUtils.setField(store, "maxBytes", messages * MESSAGE_BYTES);
+        ReflectionTestUtils.setField(store, "policy", policy);
+        ReflectionTestUtils.setField(store, "blockTimeoutMs", 1_000L);
+        return store;
+    }
+
+    private static Message message(String id) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent("payload");
+        message.setType(Message.MessageType.DATA);
+        return message;
+    }
+}
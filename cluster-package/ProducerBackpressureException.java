@@ -0,0 +1,9 @@
+package com.example.producer.service;
+
+// Ném ra khi producer không thể nhận thêm tin nhắn mà không vượt quá giới hạn tài nguyên
+public class ProducerBackpressureException extends RuntimeException {
+
+    public ProducerBackpressureException(String message) {
+        super(message);
+    }
+}
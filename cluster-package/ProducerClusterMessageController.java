@@ -1,14 +1,31 @@
 package com.example.producer.controller;
 
+import com.example.producer.model.BatchSendResult;
 import com.example.producer.model.Message;
+import com.example.producer.model.SendAck;
+import com.example.producer.service.ClusterTopologyMonitor;
+import com.example.producer.service.HighAvailabilityProducerService;
 import com.example.producer.service.KafkaClusterProducerService;
+import com.example.producer.service.MessageDeliveryException;
+import com.example.producer.service.MessageLogSampler;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/api/messages")
@@ -17,18 +34,85 @@ import java.util.Map;
 @Profile("cluster")
 public class ClusterMessageController {
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final int NDJSON_CHUNK_SIZE = 500;
+
     private final KafkaClusterProducerService producerService;
+    private final HighAvailabilityProducerService haProducerService;
+    private final ObjectMapper objectMapper;
+    private final MessageLogSampler logSampler;
+    private final ClusterTopologyMonitor topologyMonitor;
 
     @PostMapping
     public ResponseEntity<Message> sendMessage(@RequestBody Message message) {
-        log.info("Received message to send to cluster: {}", message);
+        if (logSampler.shouldLog()) {
+            log.info("Received message to send to cluster: {}", message);
+        }
         producerService.sendMessage(message);
         return ResponseEntity.ok(message);
     }
     
+    // Chỉ trả lời khi broker đã xác nhận; request được xử lý bất đồng bộ nên không giữ thread của servlet
+    @PostMapping("/durable")
+    public CompletableFuture<ResponseEntity<SendAck>> sendMessageDurable(@RequestBody Message message) {
+        if (logSampler.shouldLog()) {
+            log.info("Received durable message to send to cluster: {}", message);
+        }
+        return haProducerService.sendMessageAwaitAck(message)
+                .handle((ack, ex) -> {
+                    if (ex == null) {
+                        return ResponseEntity.ok(ack);
+                    }
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    if (cause instanceof TimeoutException) {
+                        // Tin nhắn vẫn có thể được gửi thành công sau đó
+                        log.warn("Timed out waiting for acknowledgement of message: [{}]", message.getId());
+                        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).<SendAck>build();
+                    }
+                    if (!(cause instanceof MessageDeliveryException)) {
+                        log.error("Durable send failed for message: [{}]", message.getId(), cause);
+                    }
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).<SendAck>build();
+                });
+    }
+    
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<BatchSendResult>> sendBatch(@RequestBody List<Message> messages) {
+        log.info("Received batch of {} messages to send to cluster", messages.size());
+        return haProducerService.sendBatch(messages).thenApply(ResponseEntity::ok);
+    }
+    
+    // Mỗi dòng là một tin nhắn JSON; tin nhắn được đọc và gửi theo từng đoạn, không giữ toàn bộ request trong bộ nhớ
+    @PostMapping(value = "/batch", consumes = NDJSON)
+    public CompletableFuture<ResponseEntity<BatchSendResult>> sendBatchStream(InputStream body) throws IOException {
+        List<CompletableFuture<BatchSendResult>> chunks = new ArrayList<>();
+        try (MappingIterator<Message> iterator = objectMapper.readerFor(Message.class).readValues(body)) {
+            List<Message> chunk = new ArrayList<>(NDJSON_CHUNK_SIZE);
+            while (iterator.hasNextValue()) {
+                chunk.add(iterator.nextValue());
+                if (chunk.size() == NDJSON_CHUNK_SIZE) {
+                    chunks.add(haProducerService.sendBatch(chunk));
+                    chunk = new ArrayList<>(NDJSON_CHUNK_SIZE);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(haProducerService.sendBatch(chunk));
+            }
+        }
+        log.info("Received NDJSON stream, sending {} chunks to cluster", chunks.size());
+        
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> chunks.stream()
+                        .map(CompletableFuture::join)
+                        .reduce(new BatchSendResult(), BatchSendResult::merge))
+                .thenApply(ResponseEntity::ok);
+    }
+    
     @PostMapping("/info")
     public ResponseEntity<String> sendInfoMessage(@RequestParam String content) {
-        log.info("Received info message to send to cluster: {}", content);
+        if (logSampler.shouldLog()) {
+            log.info("Received info message to send to cluster: {}", content);
+        }
         producerService.sendInfoMessage(content);
         return ResponseEntity.ok("Info message sent successfully to Kafka cluster");
     }
@@ -37,13 +121,15 @@ public class ClusterMessageController {
     public ResponseEntity<String> sendDataMessage(
             @RequestParam String content,
             @RequestBody Map<String, Object> data) {
-        log.info("Received data message to send to cluster: {}, with data: {}", content, data);
+        if (logSampler.shouldLog()) {
+            log.info("Received data message to send to cluster: {}, with data: {}", content, data);
+        }
         producerService.sendDataMessage(content, data);
         return ResponseEntity.ok("Data message sent successfully to Kafka cluster");
     }
     
     @GetMapping("/cluster-status")
-    public ResponseEntity<String> getClusterStatus() {
-        return ResponseEntity.ok("Producer is connected to Kafka cluster with 3 brokers");
+    public ResponseEntity<Map<String, Object>> getClusterStatus() {
+        return ResponseEntity.ok(topologyMonitor.getSnapshot());
     }
 }
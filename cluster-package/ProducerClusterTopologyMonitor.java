@@ -0,0 +1,184 @@
+package com.example.producer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.Config;
+import org.apache.kafka.clients.admin.ConfigEntry;
+import org.apache.kafka.clients.admin.DescribeClusterResult;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.config.ConfigResource;
+import org.apache.kafka.common.config.TopicConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Theo dõi topology của cluster ở nền bằng một AdminClient dùng chung: số broker, leader và ISR của từng partition
+ * so với min.insync.replicas. Request chỉ đọc snapshot gần nhất, không gọi tới broker.
+ * Producer dùng snapshot để phát hiện mất leader trong vài giây và gửi lại tin nhắn đã ghi xuống đĩa khi cluster phục hồi.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class ClusterTopologyMonitor {
+
+    public enum Status {
+        UNKNOWN,        // Chưa có lần làm mới nào
+        HEALTHY,        // Mọi partition có leader và đủ ISR
+        DEGRADED,       // ISR bị thu hẹp nhưng vẫn >= min.insync.replicas
+        UNDER_MIN_ISR,  // Có partition dưới min.insync.replicas, ghi với acks=all bị từ chối
+        UNAVAILABLE     // Có partition không có leader hoặc không kết nối được cluster
+    }
+
+    @Value("${spring.kafka.producer.bootstrap-servers}")
+    private String bootstrapServers;
+
+    @Value("${kafka.topic.name}")
+    private String topicName;
+
+    @Value("${kafka.producer.topology.refresh-ms:2000}")
+    private long refreshMs;
+
+    // Cấu hình topic ít thay đổi nên chỉ được đọc lại sau mỗi N lần làm mới
+    @Value("${kafka.producer.topology.config-refresh-cycles:30}")
+    private int configRefreshCycles;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "producer-topology-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Runnable> recoveryListeners = new CopyOnWriteArrayList<>();
+
+    private AdminClient adminClient;
+    private int cycle;
+    private int minInsyncReplicas = 1;
+    private volatile Status status = Status.UNKNOWN;
+    private volatile Map<String, Object> snapshot = Collections.singletonMap("status", Status.UNKNOWN.name());
+
+    @PostConstruct
+    public void start() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(AdminClientConfig.REQUEST_TIMEOUT_MS_CONFIG, (int) refreshMs);
+        adminClient = AdminClient.create(props);
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Được gọi trên thread của monitor khi topic chuyển từ không ghi được sang ghi được
+    public void addRecoveryListener(Runnable listener) {
+        recoveryListeners.add(listener);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    // Topic có nhận ghi với acks=all không; UNKNOWN được coi là ghi được để không chặn lúc khởi động
+    public boolean isWritable() {
+        return status != Status.UNAVAILABLE && status != Status.UNDER_MIN_ISR;
+    }
+
+    public Map<String, Object> getSnapshot() {
+        return snapshot;
+    }
+
+    private void refresh() {
+        boolean wasWritable = isWritable();
+        Map<String, Object> next = new LinkedHashMap<>();
+        Status nextStatus;
+        try {
+            DescribeClusterResult cluster = adminClient.describeCluster();
+            Collection<Node> nodes = cluster.nodes().get(refreshMs, TimeUnit.MILLISECONDS);
+            Node controller = cluster.controller().get(refreshMs, TimeUnit.MILLISECONDS);
+            if (cycle++ % configRefreshCycles == 0) {
+                refreshMinInsyncReplicas();
+            }
+            TopicDescription topic = adminClient.describeTopics(Collections.singleton(topicName))
+                    .allTopicNames().get(refreshMs, TimeUnit.MILLISECONDS).get(topicName);
+
+            nextStatus = Status.HEALTHY;
+            List<Map<String, Object>> partitions = new ArrayList<>();
+            for (TopicPartitionInfo partition : topic.partitions()) {
+                Node leader = partition.leader();
+                int isr = partition.isr().size();
+                if (leader == null || leader.isEmpty()) {
+                    nextStatus = Status.UNAVAILABLE;
+                } else if (isr < minInsyncReplicas) {
+                    nextStatus = worse(nextStatus, Status.UNDER_MIN_ISR);
+                } else if (isr < partition.replicas().size()) {
+                    nextStatus = worse(nextStatus, Status.DEGRADED);
+                }
+                Map<String, Object> state = new LinkedHashMap<>();
+                state.put("partition", partition.partition());
+                state.put("leader", leader == null || leader.isEmpty() ? null : leader.id());
+                state.put("replicas", partition.replicas().size());
+                state.put("isr", isr);
+                partitions.add(state);
+            }
+            next.put("brokers", nodes.size());
+            next.put("controller", controller == null ? null : controller.id());
+            next.put("topic", topicName);
+            next.put("minInsyncReplicas", minInsyncReplicas);
+            next.put("partitions", partitions);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            log.warn("Failed to refresh cluster topology: {}", e.toString());
+            nextStatus = Status.UNAVAILABLE;
+            next.put("error", e.toString());
+        }
+        next.put("status", nextStatus.name());
+        next.put("refreshedAt", System.currentTimeMillis());
+
+        if (nextStatus != status) {
+            log.warn("Cluster topology status changed from {} to {}", status, nextStatus);
+        }
+        status = nextStatus;
+        snapshot = next;
+        if (!wasWritable && isWritable()) {
+            recoveryListeners.forEach(Runnable::run);
+        }
+    }
+
+    private void refreshMinInsyncReplicas() throws Exception {
+        ConfigResource resource = new ConfigResource(ConfigResource.Type.TOPIC, topicName);
+        Config config = adminClient.describeConfigs(Collections.singleton(resource))
+                .all().get(refreshMs, TimeUnit.MILLISECONDS).get(resource);
+        ConfigEntry entry = config.get(TopicConfig.MIN_IN_SYNC_REPLICAS_CONFIG);
+        if (entry != null && entry.value() != null) {
+            minInsyncReplicas = Integer.parseInt(entry.value());
+        }
+    }
+
+    private static Status worse(Status current, Status candidate) {
+        return candidate.ordinal() > current.ordinal() ? candidate : current;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (adminClient != null) {
+            adminClient.close();
+        }
+    }
+}
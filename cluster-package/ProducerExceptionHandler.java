@@ -0,0 +1,30 @@
+package com.example.producer.controller;
+
+import com.example.producer.service.ProducerBackpressureException;
+import com.example.producer.service.ProducerRateLimitException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+// Trả lời chung cho mọi controller của producer khi tin nhắn bị từ chối do quá tải
+@RestControllerAdvice(basePackages = "com.example.producer.controller")
+@Slf4j
+@Profile("cluster")
+public class ProducerExceptionHandler {
+
+    @ExceptionHandler(ProducerRateLimitException.class)
+    public ResponseEntity<String> handleRateLimit(ProducerRateLimitException e) {
+        log.warn("Rejecting message because in-flight send limit is reached: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").body(e.getMessage());
+    }
+
+    @ExceptionHandler(ProducerBackpressureException.class)
+    public ResponseEntity<String> handleBackpressure(ProducerBackpressureException e) {
+        log.warn("Rejecting message because producer is under backpressure: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
+    }
+}
@@ -2,6 +2,7 @@ package com.example.producer.controller;
 
 import com.example.producer.model.Message;
 import com.example.producer.service.HighAvailabilityProducerService;
+import com.example.producer.service.MessageLogSampler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
@@ -18,14 +19,29 @@ import java.util.Map;
 public class HighAvailabilityController {
 
     private final HighAvailabilityProducerService haProducerService;
+    private final MessageLogSampler logSampler;
 
     @PostMapping("/messages")
     public ResponseEntity<Message> sendMessage(@RequestBody Message message) {
-        log.info("Received message to send with HA: {}", message);
+        if (logSampler.shouldLog()) {
+            log.info("Received message to send with HA: {}", message);
+        }
         haProducerService.sendMessage(message);
         return ResponseEntity.ok(message);
     }
     
+    // Tin nhắn DATA đi qua MessageCoalescer khi kafka.producer.coalescing.enabled
+    @PostMapping("/messages/data")
+    public ResponseEntity<String> sendDataMessage(
+            @RequestParam String content,
+            @RequestBody Map<String, Object> data) {
+        if (logSampler.shouldLog()) {
+            log.info("Received data message to send with HA: {}, with data: {}", content, data);
+        }
+        haProducerService.sendDataMessage(content, data);
+        return ResponseEntity.ok("Data message accepted");
+    }
+    
     @GetMapping("/health")
     public ResponseEntity<Map<String, Object>> getClusterHealth() {
         log.info("Checking cluster health");
@@ -33,6 +49,11 @@ public class HighAvailabilityController {
         return ResponseEntity.ok(health);
     }
     
+    @GetMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> getMetrics() {
+        return ResponseEntity.ok(haProducerService.getMetrics());
+    }
+    
     @PostMapping("/resend-pending")
     public ResponseEntity<String> resendPendingMessages() {
         log.info("Manually triggering resend of pending messages");
@@ -0,0 +1,356 @@
+package com.example.producer.config;
+
+import com.example.producer.model.Message;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mã hóa nhị phân gọn cho Message.
+ * Định dạng v2: [version][id][content][timestamp varint][type name][additionalData],
+ * chuỗi được ghi bằng độ dài varint + UTF-8, additionalData ghi theo tag kiểu của từng giá trị.
+ * MessageType được ghi bằng tên nên có thể thêm hoặc sắp xếp lại enum mà không làm hỏng dữ liệu cũ.
+ * Lớp này được sao chép nguyên vẹn ở producer và consumer (chỉ khác package) vì hai ứng dụng không dùng chung module.
+ */
+public final class MessageBinaryCodec {
+
+    public static final byte VERSION = 2;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_TRUE = 5;
+    private static final byte TAG_FALSE = 6;
+    private static final byte TAG_MAP = 7;
+    private static final byte TAG_LIST = 8;
+    private static final byte TAG_DECIMAL = 9;
+
+    private static final int INITIAL_BUFFER_BYTES = 512;
+
+    // Không giữ lại bộ đệm quá lớn sau một tin nhắn bất thường
+    private static final int MAX_RETAINED_BUFFER_BYTES = 1 << 20;
+
+    // Mỗi thread tái sử dụng một bộ đệm ghi để tránh cấp phát cho từng tin nhắn
+    private static final ThreadLocal<Writer> WRITERS = ThreadLocal.withInitial(Writer::new);
+
+    private MessageBinaryCodec() {
+    }
+
+    /**
+     * Mã hóa tin nhắn. Ném IllegalArgumentException nếu additionalData chứa kiểu không hỗ trợ,
+     * khi đó người gọi nên dùng JSON.
+     */
+    public static byte[] encode(Message message) {
+        Writer writer = WRITERS.get();
+        writer.reset();
+        try {
+            writer.writeByte(VERSION);
+            writer.writeString(message.getId());
+            writer.writeString(message.getContent());
+            writer.writeVarLong(message.getTimestamp());
+            writer.writeString(message.getType() == null ? null : message.getType().name());
+            Map<String, Object> data = message.getAdditionalData();
+            if (data == null) {
+                writer.writeVarInt(0);
+            } else {
+                writer.writeVarInt(data.size() + 1);
+                for (Map.Entry<String, Object> entry : data.entrySet()) {
+                    writer.writeString(entry.getKey());
+                    writer.writeValue(entry.getValue());
+                }
+            }
+            return writer.toByteArray();
+        } finally {
+            writer.release();
+        }
+    }
+
+    public static Message decode(byte[] data) {
+        Reader reader = new Reader(data);
+        byte version = reader.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported message format version: " + version);
+        }
+        Message message = new Message();
+        message.setId(reader.readString());
+        message.setContent(reader.readString());
+        message.setTimestamp(reader.readVarLong());
+        String type = reader.readString();
+        message.setType(type == null ? null : Message.MessageType.valueOf(type));
+        int entries = reader.readVarInt();
+        if (entries > 0) {
+            Map<String, Object> additionalData = new LinkedHashMap<>(capacityFor(entries - 1));
+            for (int i = 0; i < entries - 1; i++) {
+                additionalData.put(reader.readString(), reader.readValue());
+            }
+            message.setAdditionalData(additionalData);
+        }
+        return message;
+    }
+
+    private static int capacityFor(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    private static final class Writer {
+        private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+        private int position;
+
+        void reset() {
+            position = 0;
+        }
+
+        void release() {
+            if (buffer.length > MAX_RETAINED_BUFFER_BYTES) {
+                buffer = new byte[INITIAL_BUFFER_BYTES];
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        void writeByte(byte value) {
+            ensureCapacity(1);
+            buffer[position++] = value;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        // Chuỗi null được ghi là độ dài 0, chuỗi có n byte được ghi là n + 1
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            int length = utf8Length(value);
+            writeVarInt(length + 1);
+            ensureCapacity(length);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // Surrogate lẻ được thay bằng '?' giống String.getBytes(UTF_8)
+                    buffer[position++] = (byte) '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        void writeValue(Object value) {
+            if (value == null) {
+                writeByte(TAG_NULL);
+            } else if (value instanceof String) {
+                writeByte(TAG_STRING);
+                writeString((String) value);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                writeByte(TAG_INT);
+                writeVarInt(zigZag(((Number) value).intValue()));
+            } else if (value instanceof Long) {
+                writeByte(TAG_LONG);
+                writeVarLong(zigZag((Long) value));
+            } else if (value instanceof Double || value instanceof Float) {
+                writeByte(TAG_DOUBLE);
+                long bits = Double.doubleToRawLongBits(((Number) value).doubleValue());
+                ensureCapacity(8);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    buffer[position++] = (byte) (bits >>> shift);
+                }
+            } else if (value instanceof BigDecimal) {
+                writeByte(TAG_DECIMAL);
+                writeString(value.toString());
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Map) {
+                writeByte(TAG_MAP);
+                Map<?, ?> map = (Map<?, ?>) value;
+                writeVarInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (!(entry.getKey() instanceof String)) {
+                        throw new IllegalArgumentException("Unsupported map key type: " + entry.getKey());
+                    }
+                    writeString((String) entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            } else if (value instanceof Collection) {
+                writeByte(TAG_LIST);
+                Collection<?> collection = (Collection<?>) value;
+                writeVarInt(collection.size());
+                for (Object element : collection) {
+                    writeValue(element);
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported additionalData value type: " + value.getClass());
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+
+        private static int utf8Length(String value) {
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    length++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        private static int zigZag(int value) {
+            return (value << 1) ^ (value >> 31);
+        }
+
+        private static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position;
+
+        Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            return buffer[position++];
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = buffer[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varlong");
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            String value = new String(buffer, position, length - 1, StandardCharsets.UTF_8);
+            position += length - 1;
+            return value;
+        }
+
+        Object readValue() {
+            byte tag = readByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readString();
+                case TAG_INT: {
+                    int raw = readVarInt();
+                    return (raw >>> 1) ^ -(raw & 1);
+                }
+                case TAG_LONG: {
+                    long raw = readVarLong();
+                    return (raw >>> 1) ^ -(raw & 1);
+                }
+                case TAG_DOUBLE: {
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | (buffer[position++] & 0xFF);
+                    }
+                    return Double.longBitsToDouble(bits);
+                }
+                case TAG_DECIMAL:
+                    return new BigDecimal(readString());
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_MAP: {
+                    int size = readVarInt();
+                    Map<String, Object> map = new LinkedHashMap<>(capacityFor(size));
+                    for (int i = 0; i < size; i++) {
+                        map.put(readString(), readValue());
+                    }
+                    return map;
+                }
+                case TAG_LIST: {
+                    int size = readVarInt();
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown value tag: " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.producer.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Số liệu trên đường gửi của producer: bộ đếm LongAdder không khóa và histogram độ trễ gửi - xác nhận
+ * (p50/p99/p999), xuất qua Micrometer và endpoint /api/ha/metrics.
+ */
+@Component
+@Profile("cluster")
+public class ProducerMetrics {
+
+    private final MeterRegistry registry;
+    private final Timer ackLatency;
+
+    private final LongAdder acceptedMessages = new LongAdder();
+    private final LongAdder sendAttempts = new LongAdder();
+    private final LongAdder retriedAttempts = new LongAdder();
+    private final LongAdder ackedMessages = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder spilledMessages = new LongAdder();
+    private final Map<Integer, LongAdder> ackedPerPartition = new ConcurrentHashMap<>();
+
+    public ProducerMetrics(MeterRegistry registry, PendingMessageStore pendingMessages) {
+        this.registry = registry;
+        this.ackLatency = Timer.builder("kafka.producer.send.ack.latency")
+                .description("Time from send to broker acknowledgement, per attempt")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        counter("kafka.producer.messages.accepted", acceptedMessages);
+        counter("kafka.producer.send.attempts", sendAttempts);
+        counter("kafka.producer.send.retries", retriedAttempts);
+        counter("kafka.producer.messages.acked", ackedMessages);
+        counter("kafka.producer.send.failures", failedAttempts);
+        counter("kafka.producer.messages.spilled", spilledMessages);
+        Gauge.builder("kafka.producer.pending.messages", pendingMessages, PendingMessageStore::size).register(registry);
+        Gauge.builder("kafka.producer.pending.bytes", pendingMessages, PendingMessageStore::bytesInUse).register(registry);
+    }
+
+    public void recordAccepted() {
+        acceptedMessages.increment();
+    }
+
+    public void recordSendAttempt(int attempt) {
+        sendAttempts.increment();
+        if (attempt > 0) {
+            retriedAttempts.increment();
+        }
+    }
+
+    public void recordAck(int partition, long latencyNanos) {
+        ackedMessages.increment();
+        ackLatency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        ackedPerPartition.computeIfAbsent(partition, this::partitionCounter).increment();
+    }
+
+    public void recordFailure() {
+        failedAttempts.increment();
+    }
+
+    public void recordSpilled() {
+        spilledMessages.increment();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long attempts = sendAttempts.sum();
+        metrics.put("acceptedMessages", acceptedMessages.sum());
+        metrics.put("sendAttempts", attempts);
+        metrics.put("ackedMessages", ackedMessages.sum());
+        metrics.put("failedAttempts", failedAttempts.sum());
+        metrics.put("spilledMessages", spilledMessages.sum());
+        metrics.put("retryRate", attempts == 0 ? 0.0 : (double) retriedAttempts.sum() / attempts);
+        metrics.put("ackLatencyMs", latencySnapshot(ackLatency));
+
+        Map<Integer, Long> perPartition = new TreeMap<>();
+        ackedPerPartition.forEach((partition, count) -> perPartition.put(partition, count.sum()));
+        metrics.put("ackedPerPartition", perPartition);
+        return metrics;
+    }
+
+    static Map<String, Object> latencySnapshot(Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", snapshot.count());
+        latency.put("mean", snapshot.mean(TimeUnit.MILLISECONDS));
+        latency.put("max", snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            latency.put(percentileName(percentile.percentile()), percentile.value(TimeUnit.MILLISECONDS));
+        }
+        return latency;
+    }
+
+    // 0.5 -> "p50", 0.99 -> "p99", 0.999 -> "p999"
+    static String percentileName(double percentile) {
+        String digits = String.valueOf(Math.round(percentile * 1000));
+        return "p" + (digits.endsWith("0") ? digits.substring(0, digits.length() - 1) : digits);
+    }
+
+    private LongAdder partitionCounter(int partition) {
+        LongAdder counter = new LongAdder();
+        FunctionCounter.builder("kafka.producer.partition.acked", counter, LongAdder::sum)
+                .tag("partition", String.valueOf(partition))
+                .register(registry);
+        return counter;
+    }
+
+    private void counter(String name, LongAdder adder) {
+        FunctionCounter.builder(name, adder, LongAdder::sum).register(registry);
+    }
+}
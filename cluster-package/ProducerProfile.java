@@ -0,0 +1,86 @@
+package com.example.producer.config;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Các bộ cấu hình producer đã được kiểm chứng.
+ * Tất cả đều dùng idempotence nên thứ tự tin nhắn trong partition vẫn được giữ với tối đa 5 request đang bay.
+ */
+public enum ProducerProfile {
+
+    // Giống cấu hình ban đầu: mỗi broker chỉ một request tại một thời điểm, không nén
+    STRICT_ORDERING("strict-ordering", 0, 16384, "none", 1, 33554432L),
+
+    // Độ trễ thấp: gửi gần như ngay lập tức, nén nhẹ bằng lz4
+    DURABLE_LOW_LATENCY("durable-low-latency", 1, 32768, "lz4", 5, 33554432L),
+
+    // Thông lượng cao: gom lô lớn hơn, nén zstd, bộ đệm lớn hơn
+    DURABLE_HIGH_THROUGHPUT("durable-high-throughput", 20, 262144, "zstd", 5, 134217728L);
+
+    // Giới hạn của Kafka để idempotence vẫn đảm bảo thứ tự
+    private static final int MAX_IDEMPOTENT_IN_FLIGHT = 5;
+
+    private final String profileName;
+    private final int lingerMs;
+    private final int batchSize;
+    private final String compressionType;
+    private final int maxInFlightRequests;
+    private final long bufferMemory;
+
+    ProducerProfile(String profileName, int lingerMs, int batchSize, String compressionType,
+                    int maxInFlightRequests, long bufferMemory) {
+        this.profileName = profileName;
+        this.lingerMs = lingerMs;
+        this.batchSize = batchSize;
+        this.compressionType = compressionType;
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.bufferMemory = bufferMemory;
+    }
+
+    public static ProducerProfile fromName(String name) {
+        return Arrays.stream(values())
+                .filter(profile -> profile.profileName.equalsIgnoreCase(name) || profile.name().equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown producer profile: " + name
+                        + ", expected one of " + Arrays.toString(values())));
+    }
+
+    public Map<String, Object> toConfig() {
+        Map<String, Object> config = new HashMap<>();
+        config.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        config.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        config.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        config.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, maxInFlightRequests);
+        config.put(ProducerConfig.BUFFER_MEMORY_CONFIG, bufferMemory);
+        return config;
+    }
+
+    // Kiểm tra các cấu hình chung có giữ được đảm bảo độ bền và thứ tự của profile hay không
+    public void validate(String acks, int retries) {
+        if (!"all".equalsIgnoreCase(acks) && !"-1".equals(acks)) {
+            throw new IllegalStateException("Producer profile " + profileName
+                    + " requires acks=all for idempotent delivery, but acks=" + acks);
+        }
+        if (retries <= 0) {
+            throw new IllegalStateException("Producer profile " + profileName
+                    + " requires retries > 0 for idempotent delivery, but retries=" + retries);
+        }
+        if (maxInFlightRequests > MAX_IDEMPOTENT_IN_FLIGHT) {
+            throw new IllegalStateException("Producer profile " + profileName
+                    + " allows more than " + MAX_IDEMPOTENT_IN_FLIGHT + " in-flight requests, ordering would not be guaranteed");
+        }
+    }
+
+    public String getProfileName() {
+        return profileName;
+    }
+
+    @Override
+    public String toString() {
+        return profileName;
+    }
+}
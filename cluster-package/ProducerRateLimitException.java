@@ -0,0 +1,9 @@
+package com.example.producer.service;
+
+// Ném ra khi số tin nhắn đang gửi đã đạt giới hạn thích ứng theo phản hồi của broker (HTTP 429)
+public class ProducerRateLimitException extends ProducerBackpressureException {
+
+    public ProducerRateLimitException(String message) {
+        super(message);
+    }
+}
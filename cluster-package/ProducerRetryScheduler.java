@@ -0,0 +1,95 @@
+package com.example.producer.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+@Component
+@Slf4j
+@Profile("cluster")
+public class ProducerRetryScheduler {
+
+    @Value("${kafka.producer.retry.base-delay-ms:1000}")
+    private long baseDelayMs;
+
+    @Value("${kafka.producer.retry.max-delay-ms:30000}")
+    private long maxDelayMs;
+
+    // Giới hạn tổng số tin nhắn đang chờ gửi lại cùng lúc
+    @Value("${kafka.producer.retry.max-in-flight:10000}")
+    private int maxInFlightRetries;
+
+    // Lịch gửi lại chạy trên thread riêng, không chặn thread I/O của Kafka producer
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final AtomicInteger queuedRetries = new AtomicInteger();
+    private final LongAdder scheduledRetries = new LongAdder();
+    private final LongAdder rejectedRetries = new LongAdder();
+
+    public ProducerRetryScheduler(@Value("${kafka.producer.retry.threads:2}") int threads) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            Thread thread = new Thread(runnable, "producer-retry-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Lên lịch gửi lại sau một khoảng backoff có jitter.
+     * Trả về false nếu hàng đợi gửi lại đã đầy, khi đó người gọi phải tự xử lý tin nhắn.
+     */
+    public boolean schedule(int attempt, Runnable retry) {
+        if (queuedRetries.incrementAndGet() > maxInFlightRetries) {
+            queuedRetries.decrementAndGet();
+            rejectedRetries.increment();
+            return false;
+        }
+
+        long delayMs = backoffDelayMs(attempt);
+        scheduledRetries.increment();
+        scheduler.schedule(() -> {
+            queuedRetries.decrementAndGet();
+            try {
+                retry.run();
+            } catch (Exception e) {
+                log.error("Scheduled retry failed to run", e);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // Exponential backoff với "equal jitter": một nửa cố định, một nửa ngẫu nhiên,
+    // để các tin nhắn lỗi cùng lúc không gửi lại đồng loạt vào broker mới
+    long backoffDelayMs(int attempt) {
+        int shift = Math.min(Math.max(attempt - 1, 0), 30);
+        long exponential = Math.min(maxDelayMs, baseDelayMs << shift);
+        long half = exponential / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queuedRetries", queuedRetries.get());
+        stats.put("scheduledRetries", scheduledRetries.sum());
+        stats.put("rejectedRetries", rejectedRetries.sum());
+        stats.put("maxInFlightRetries", maxInFlightRetries);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.consumer.service;
+
+import com.example.consumer.model.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Lưu các tin nhắn đã nhận trong một bộ đệm vòng có giới hạn.
+ * Chỉ mục theo id và theo MessageType được cập nhật khi thêm/loại bỏ,
+ * nên tra cứu theo id là O(1), theo loại là O(k) và thống kê là O(số loại).
+ */
+@Component
+@Profile("cluster")
+public class ReceivedMessageStore {
+
+    private final Message[] ring;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Số thứ tự toàn cục: tin nhắn có số thứ tự seq nằm ở ring[seq % capacity]
+    private long oldestSequence;
+    private long nextSequence;
+
+    private final Map<String, Long> idIndex = new HashMap<>();
+    private final Map<Message.MessageType, ArrayDeque<Long>> typeIndex = new EnumMap<>(Message.MessageType.class);
+
+    public ReceivedMessageStore(@Value("${kafka.consumer.history.capacity:100000}") int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("kafka.consumer.history.capacity must be at least 1, got " + capacity);
+        }
+        this.ring = new Message[capacity];
+    }
+
+    public void add(Message message) {
+        lock.writeLock().lock();
+        try {
+            if (nextSequence - oldestSequence == ring.length) {
+                evictOldest();
+            }
+            long sequence = nextSequence++;
+            ring[slot(sequence)] = message;
+            idIndex.put(message.getId(), sequence);
+            if (message.getType() != null) {
+                typeIndex.computeIfAbsent(message.getType(), type -> new ArrayDeque<>()).addLast(sequence);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Message getById(String id) {
+        lock.readLock().lock();
+        try {
+            Long sequence = idIndex.get(id);
+            return sequence == null ? null : ring[slot(sequence)];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Message> getByType(Message.MessageType type) {
+        lock.readLock().lock();
+        try {
+            ArrayDeque<Long> sequences = typeIndex.get(type);
+            if (sequences == null) {
+                return new ArrayList<>();
+            }
+            List<Message> messages = new ArrayList<>(sequences.size());
+            for (Long sequence : sequences) {
+                messages.add(ring[slot(sequence)]);
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Message> getAll() {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = new ArrayList<>((int) (nextSequence - oldestSequence));
+            for (long sequence = oldestSequence; sequence < nextSequence; sequence++) {
+                messages.add(ring[slot(sequence)]);
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<Message.MessageType, Long> countByType() {
+        lock.readLock().lock();
+        try {
+            Map<Message.MessageType, Long> counts = new EnumMap<>(Message.MessageType.class);
+            typeIndex.forEach((type, sequences) -> {
+                if (!sequences.isEmpty()) {
+                    counts.put(type, (long) sequences.size());
+                }
+            });
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return (int) (nextSequence - oldestSequence);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            while (oldestSequence < nextSequence) {
+                ring[slot(oldestSequence++)] = null;
+            }
+            idIndex.clear();
+            typeIndex.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Loại bỏ tin nhắn cũ nhất; vì loại bỏ theo thứ tự FIFO nên nó cũng là tin nhắn cũ nhất trong chỉ mục loại
+    private void evictOldest() {
+        long sequence = oldestSequence++;
+        int slot = slot(sequence);
+        Message evicted = ring[slot];
+        ring[slot] = null;
+        idIndex.remove(evicted.getId(), sequence);
+        if (evicted.getType() != null) {
+            typeIndex.get(evicted.getType()).pollFirst();
+        }
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % ring.length);
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.consumer.service;
+
+import com.example.consumer.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReceivedMessageStoreTest {
+
+    @Test
+    void evictionRemovesOldestFromIdIndex() {
+        ReceivedMessageStore store = new ReceivedMessageStore(3);
+        for (int i = 1; i <= 4; i++) {
+            store.add(message("m-" + i, Message.MessageType.INFO));
+        }
+
+        assertNull(store.getById("m-1"));
+        assertEquals("m-2", store.getById("m-2").getId());
+        assertEquals("m-4", store.getById("m-4").getId());
+        assertEquals(List.of("m-2", "m-3", "m-4"), ids(store.getAll()));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    void evictionKeepsTypeIndexConsistent() {
+        ReceivedMessageStore store = new ReceivedMessageStore(3);
+        store.add(message("m-1", Message.MessageType.INFO));
+        store.add(message("m-2", Message.MessageType.DATA));
+        store.add(message("m-3", Message.MessageType.INFO));
+        store.add(message("m-4", Message.MessageType.DATA));
+        store.add(message("m-5", Message.MessageType.DATA));
+
+        assertEquals(List.of("m-3"), ids(store.getByType(Message.MessageType.INFO)));
+        assertEquals(List.of("m-4", "m-5"), ids(store.getByType(Message.MessageType.DATA)));
+        Map<Message.MessageType, Long> counts = store.countByType();
+        assertEquals(1L, counts.get(Message.MessageType.INFO));
+        assertEquals(2L, counts.get(Message.MessageType.DATA));
+    }
+
+    // Id được thêm lại: loại bỏ bản cũ không được xóa chỉ mục của bản mới
+    @Test
+    void evictingOlderCopyKeepsNewerCopyIndexed() {
+        ReceivedMessageStore store = new ReceivedMessageStore(2);
+        Message first = message("m-1", Message.MessageType.INFO);
+        first.setContent("first");
+        Message second = message("m-1", Message.MessageType.INFO);
+        second.setContent("second");
+
+        store.add(first);
+        store.add(message("m-2", Message.MessageType.INFO));
+        store.add(second);
+
+        assertEquals("second", store.getById("m-1").getContent());
+        assertEquals(List.of("m-2", "m-1"), ids(store.getAll()));
+    }
+
+    @Test
+    void messagesWithoutTypeAreStoredButNotTypeIndexed() {
+        ReceivedMessageStore store = new ReceivedMessageStore(2);
+        store.add(message("m-1", null));
+        store.add(message("m-2", Message.MessageType.DATA));
+        store.add(message("m-3", Message.MessageType.DATA));
+
+        assertNull(store.getById("m-1"));
+        assertEquals(List.of("m-2", "m-3"), ids(store.getByType(Message.MessageType.DATA)));
+        assertEquals(2L, store.countByType().get(Message.MessageType.DATA));
+    }
+
+    @Test
+    void clearEmptiesRingAndIndexes() {
+        ReceivedMessageStore store = new ReceivedMessageStore(2);
+        store.add(message("m-1", Message.MessageType.INFO));
+        store.add(message("m-2", Message.MessageType.DATA));
+
+        store.clear();
+        store.add(message("m-3", Message.MessageType.DATA));
+
+        assertEquals(1, store.size());
+        assertNull(store.getById("m-1"));
+        assertTrue(store.getByType(Message.MessageType.INFO).isEmpty());
+        assertEquals(List.of("m-3"), ids(store.getAll()));
+    }
+
+    @Test
+    void rejectsCapacityBelowOne() {
+        assertThrows(IllegalArgumentException.class, () -> new ReceivedMessageStore(0));
+    }
+
+    private static Message message(String id, Message.MessageType type) {
+        Message message = new Message();
+        message.setId(id);
+        message.setContent("content " + id);
+        message.setTimestamp(System.currentTimeMillis());
+        message.setType(type);
+        return message;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.consumer.service;
+
+import com.example.consumer.config.MessageDeserializer;
+import com.example.consumer.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Kiểm tra trùng lặp và lọc MessageType từ header "message-id" / "message-type" do producer gắn vào,
+ * trước khi payload được giải mã (kafka.consumer.lazy-decode.enabled).
+ * Record không có các header này (producer cũ) vẫn được giải mã bình thường.
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class RecordPreFilter implements MessageDeserializer.SkipPolicy {
+
+    public static final String MESSAGE_ID_HEADER = "message-id";
+    public static final String MESSAGE_TYPE_HEADER = "message-type";
+    public static final String REASON_DUPLICATE = "duplicate";
+    public static final String REASON_FILTERED = "filtered";
+
+    private final MessageDedupIndex processedMessageIds;
+    private final Set<Message.MessageType> acceptedTypes;
+
+    private final LongAdder skippedDuplicates = new LongAdder();
+    private final LongAdder skippedFiltered = new LongAdder();
+
+    public RecordPreFilter(MessageDedupIndex processedMessageIds,
+                           @Value("${kafka.consumer.accepted-types:}") String[] acceptedTypes) {
+        this.processedMessageIds = processedMessageIds;
+        Set<Message.MessageType> types = EnumSet.noneOf(Message.MessageType.class);
+        for (String value : acceptedTypes) {
+            String name = value.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            Message.MessageType type = parseType(name);
+            if (type == null) {
+                log.error("Ignoring unknown message type '{}' in kafka.consumer.accepted-types, known types: {}",
+                        name, Arrays.toString(Message.MessageType.values()));
+            } else {
+                types.add(type);
+            }
+        }
+        this.acceptedTypes = Collections.unmodifiableSet(types);
+    }
+
+    @Override
+    public String skipReason(Headers headers) {
+        Header type = headers.lastHeader(MESSAGE_TYPE_HEADER);
+        if (type != null && !acceptedTypes.isEmpty()) {
+            Message.MessageType messageType = parseType(new String(type.value(), StandardCharsets.UTF_8));
+            if (messageType == null) {
+                // Loại mới hơn hoặc header sai: giải mã bình thường thay vì làm lỗi deserializer
+                return null;
+            }
+            if (!acceptedTypes.contains(messageType)) {
+                skippedFiltered.increment();
+                return REASON_FILTERED;
+            }
+        }
+        Header id = headers.lastHeader(MESSAGE_ID_HEADER);
+        if (id != null && processedMessageIds.contains(new String(id.value(), StandardCharsets.UTF_8))) {
+            skippedDuplicates.increment();
+            return REASON_DUPLICATE;
+        }
+        return null;
+    }
+
+    // Tập rỗng nghĩa là nhận mọi loại tin nhắn
+    public boolean accepts(Message.MessageType type) {
+        return acceptedTypes.isEmpty() || acceptedTypes.contains(type);
+    }
+
+    private static Message.MessageType parseType(String name) {
+        try {
+            return Message.MessageType.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public long getSkippedDuplicates() {
+        return skippedDuplicates.sum();
+    }
+
+    public long getSkippedFiltered() {
+        return skippedFiltered.sum();
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.consumer.service;
+
+import com.example.consumer.model.Message;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordPreFilterTest {
+
+    private final MessageDedupIndex processedMessageIds = new MessageDedupIndex(1000, 3_600_000, 1);
+
+    @Test
+    void unknownTypeHeaderIsDecodedNormally() {
+        RecordPreFilter filter = new RecordPreFilter(processedMessageIds, new String[]{"DATA"});
+
+        assertNull(filter.skipReason(headers("m-1", "TYPE_FROM_NEWER_PRODUCER")));
+        assertEquals(0, filter.getSkippedFiltered());
+    }
+
+    @Test
+    void typeHeaderIsIgnoredWhenAllTypesAreAccepted() {
+        RecordPreFilter filter = new RecordPreFilter(processedMessageIds, new String[0]);
+
+        assertNull(filter.skipReason(headers("m-1", "not a type")));
+        assertNull(filter.skipReason(headers("m-2", Message.MessageType.INFO.name())));
+    }
+
+    @Test
+    void filtersTypesThatAreNotAccepted() {
+        RecordPreFilter filter = new RecordPreFilter(processedMessageIds, new String[]{"DATA"});
+
+        assertEquals(RecordPreFilter.REASON_FILTERED, filter.skipReason(headers("m-1", Message.MessageType.INFO.name())));
+        assertNull(filter.skipReason(headers("m-2", Message.MessageType.DATA.name())));
+        assertEquals(1, filter.getSkippedFiltered());
+    }
+
+    @Test
+    void skipsDuplicateIds() {
+        processedMessageIds.add("m-1");
+        RecordPreFilter filter = new RecordPreFilter(processedMessageIds, new String[0]);
+
+        assertEquals(RecordPreFilter.REASON_DUPLICATE, filter.skipReason(headers("m-1", null)));
+        assertNull(filter.skipReason(headers("m-2", null)));
+        assertEquals(1, filter.getSkippedDuplicates());
+    }
+
+    @Test
+    void recordsWithoutHeadersAreDecoded() {
+        RecordPreFilter filter = new RecordPreFilter(processedMessageIds, new String[]{"DATA"});
+
+        assertNull(filter.skipReason(new RecordHeaders()));
+    }
+
+    @Test
+    void unknownConfiguredTypeIsIgnored() {
+        RecordPreFilter filter = new RecordPreFilter(processedMessageIds, new String[]{" DATA ", "BOGUS", ""});
+
+        assertTrue(filter.accepts(Message.MessageType.DATA));
+        assertFalse(filter.accepts(Message.MessageType.INFO));
+    }
+
+    @Test
+    void onlyUnknownConfiguredTypesAcceptEverything() {
+        RecordPreFilter filter = new RecordPreFilter(processedMessageIds, new String[]{"BOGUS"});
+
+        assertTrue(filter.accepts(Message.MessageType.INFO));
+        assertNull(filter.skipReason(headers("m-1", Message.MessageType.INFO.name())));
+    }
+
+    private static Headers headers(String id, String type) {
+        Headers headers = new RecordHeaders();
+        if (id != null) {
+            headers.add(RecordPreFilter.MESSAGE_ID_HEADER, id.getBytes(StandardCharsets.UTF_8));
+        }
+        if (type != null) {
+            headers.add(RecordPreFilter.MESSAGE_TYPE_HEADER, type.getBytes(StandardCharsets.UTF_8));
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.consumer.service;
+
+import com.example.consumer.config.MessageDeserializer;
+import com.example.consumer.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chuyển các tin nhắn xử lý lỗi sang retry topic có độ trễ tăng dần (5s, 1m), sau cùng là DLT,
+ * để partition chính không bị chặn trong lúc chờ thử lại.
+ * Số lần thử được ghi trong header "retry-count" (cùng header mà producer đã dùng).
+ */
+@Component
+@Slf4j
+@Profile("cluster")
+public class RetryTopicRouter {
+
+    public enum RouteResult {
+        RETRY,        // Đã ghi sang retry topic
+        DEAD_LETTER,  // Đã hết số lần thử, đã ghi sang DLT
+        FAILED        // Không ghi được, record gốc cần được gửi lại
+    }
+
+    public static final String RETRY_5S_SUFFIX = "-retry-5s";
+    public static final String RETRY_1M_SUFFIX = "-retry-1m";
+    public static final String DLT_SUFFIX = "-dlt";
+
+    public static final String RETRY_COUNT_HEADER = "retry-count";
+    public static final String RETRY_DUE_AT_HEADER = "retry-due-at";
+    private static final String ORIGINAL_TOPIC_HEADER = "original-topic";
+    private static final String ORIGINAL_PARTITION_HEADER = "original-partition";
+    private static final String ORIGINAL_OFFSET_HEADER = "original-offset";
+    private static final String EXCEPTION_HEADER = "exception-message";
+    // Header định dạng cũng bị bỏ vì retry producer luôn ghi lại giá trị bằng JSON
+    private static final Set<String> ROUTING_HEADERS = Set.of(RETRY_COUNT_HEADER, RETRY_DUE_AT_HEADER,
+            ORIGINAL_TOPIC_HEADER, ORIGINAL_PARTITION_HEADER, ORIGINAL_OFFSET_HEADER, EXCEPTION_HEADER,
+            MessageDeserializer.VALUE_FORMAT_HEADER);
+
+    private static final long RETRY_5S_DELAY_MS = 5_000;
+    private static final long RETRY_1M_DELAY_MS = 60_000;
+    private static final long SEND_TIMEOUT_MS = 10_000;
+    private static final long REPLAY_TIMEOUT_MS = 60_000;
+
+    private final KafkaTemplate<String, Message> retryKafkaTemplate;
+    private final ConsumerFactory<String, Message> clusterConsumerFactory;
+
+    @Value("${kafka.topic.name}")
+    private String topicName;
+
+    @Value("${spring.kafka.consumer.group-id}")
+    private String groupId;
+
+    @Value("${kafka.consumer.retry-topics.enabled:false}")
+    private boolean enabled;
+
+    private final LongAdder retriedMessages = new LongAdder();
+    private final LongAdder deadLetteredMessages = new LongAdder();
+
+    public RetryTopicRouter(@Qualifier("retryKafkaTemplate") KafkaTemplate<String, Message> retryKafkaTemplate,
+                            ConsumerFactory<String, Message> clusterConsumerFactory) {
+        this.retryKafkaTemplate = retryKafkaTemplate;
+        this.clusterConsumerFactory = clusterConsumerFactory;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gửi record lỗi sang tầng retry tiếp theo hoặc DLT.
+     * Khi kết quả khác FAILED thì có thể commit offset của record gốc.
+     */
+    public RouteResult route(ConsumerRecord<String, Message> record, Exception cause, int maxAttempts) {
+        int attempts = attemptsOf(record) + 1;
+        String target;
+        long delayMs;
+        if (attempts >= maxAttempts) {
+            target = topicName + DLT_SUFFIX;
+            delayMs = 0;
+        } else if (attempts == 1) {
+            target = topicName + RETRY_5S_SUFFIX;
+            delayMs = RETRY_5S_DELAY_MS;
+        } else {
+            target = topicName + RETRY_1M_SUFFIX;
+            delayMs = RETRY_1M_DELAY_MS;
+        }
+
+        List<Header> headers = copyHeaders(record.headers());
+        headers.add(header(RETRY_COUNT_HEADER, String.valueOf(attempts)));
+        headers.add(header(RETRY_DUE_AT_HEADER, String.valueOf(System.currentTimeMillis() + delayMs)));
+        headers.add(header(ORIGINAL_TOPIC_HEADER, originalTopicOf(record)));
+        headers.add(header(ORIGINAL_PARTITION_HEADER, String.valueOf(record.partition())));
+        headers.add(header(ORIGINAL_OFFSET_HEADER, String.valueOf(record.offset())));
+        headers.add(header(EXCEPTION_HEADER, String.valueOf(cause.getMessage())));
+
+        if (!send(new ProducerRecord<>(target, null, record.key(), record.value(), headers))) {
+            return RouteResult.FAILED;
+        }
+        if (delayMs == 0) {
+            deadLetteredMessages.increment();
+            log.error("Message {} moved to dead letter topic {} after {} attempts", record.value().getId(), target, attempts);
+            return RouteResult.DEAD_LETTER;
+        }
+        retriedMessages.increment();
+        log.warn("Message {} scheduled for retry on {}, attempt: {}/{}", record.value().getId(), target, attempts, maxAttempts);
+        return RouteResult.RETRY;
+    }
+
+    // Thời gian còn phải chờ trước khi được xử lý lại (ms), 0 nếu đã đến hạn
+    public long remainingDelayMs(ConsumerRecord<String, Message> record) {
+        Header dueAt = record.headers().lastHeader(RETRY_DUE_AT_HEADER);
+        if (dueAt == null) {
+            return 0;
+        }
+        long due = Long.parseLong(new String(dueAt.value(), StandardCharsets.UTF_8));
+        return Math.max(0, due - System.currentTimeMillis());
+    }
+
+    /**
+     * Đọc lại tối đa {@code maxMessages} tin nhắn từ DLT và gửi về topic chính với bộ đếm thử lại được đặt lại.
+     * Các partition của DLT được gán trực tiếp (không chờ join group) và đọc từ offset đã commit
+     * tới end offset lấy lúc bắt đầu. Chỉ offset của các tin nhắn đã ghi thành công mới được commit.
+     */
+    public int replayDeadLetters(int maxMessages) {
+        String deadLetterTopic = topicName + DLT_SUFFIX;
+        int replayed = 0;
+        try (Consumer<String, Message> consumer =
+                     clusterConsumerFactory.createConsumer(groupId + DLT_SUFFIX + "-replay", null)) {
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (PartitionInfo info : consumer.partitionsFor(deadLetterTopic, Duration.ofMillis(SEND_TIMEOUT_MS))) {
+                partitions.add(new TopicPartition(info.topic(), info.partition()));
+            }
+            consumer.assign(partitions);
+            Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(partitions));
+            for (TopicPartition partition : partitions) {
+                OffsetAndMetadata offset = committed.get(partition);
+                if (offset == null) {
+                    consumer.seekToBeginning(Collections.singleton(partition));
+                } else {
+                    consumer.seek(partition, offset.offset());
+                }
+            }
+            // Tin nhắn ghi vào DLT sau thời điểm này để lần phát lại sau
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+
+            long deadline = System.currentTimeMillis() + REPLAY_TIMEOUT_MS;
+            Map<TopicPartition, OffsetAndMetadata> processed = new HashMap<>();
+            try {
+                while (replayed < maxMessages && !caughtUp(consumer, endOffsets)) {
+                    if (System.currentTimeMillis() > deadline) {
+                        log.warn("Dead letter replay timed out after {} ms, replayed {} messages", REPLAY_TIMEOUT_MS, replayed);
+                        break;
+                    }
+                    for (ConsumerRecord<String, Message> record : consumer.poll(Duration.ofMillis(500))) {
+                        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                        if (replayed >= maxMessages || record.offset() >= endOffsets.get(partition)) {
+                            // Không commit: các record này được đọc lại ở lần phát lại sau
+                            continue;
+                        }
+                        // Record có value null đã được xử lý qua một bản sao khác (bỏ qua trước khi giải mã)
+                        if (record.value() != null) {
+                            List<Header> headers = copyHeaders(record.headers());
+                            headers.add(header(RETRY_COUNT_HEADER, "0"));
+                            if (!send(new ProducerRecord<>(topicName, null, record.key(), record.value(), headers))) {
+                                throw new IllegalStateException("Failed to replay dead letter message at offset " + record.offset());
+                            }
+                            replayed++;
+                        }
+                        processed.put(partition, new OffsetAndMetadata(record.offset() + 1));
+                    }
+                    commit(consumer, processed);
+                }
+            } finally {
+                commit(consumer, processed);
+            }
+        }
+        log.info("Replayed {} messages from {} to {}", replayed, deadLetterTopic, topicName);
+        return replayed;
+    }
+
+    private static boolean caughtUp(Consumer<String, Message> consumer, Map<TopicPartition, Long> endOffsets) {
+        for (Map.Entry<TopicPartition, Long> end : endOffsets.entrySet()) {
+            if (consumer.position(end.getKey()) < end.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void commit(Consumer<String, Message> consumer, Map<TopicPartition, OffsetAndMetadata> offsets) {
+        if (!offsets.isEmpty()) {
+            consumer.commitSync(offsets);
+            offsets.clear();
+        }
+    }
+
+    public long getRetriedMessages() {
+        return retriedMessages.sum();
+    }
+
+    public long getDeadLetteredMessages() {
+        return deadLetteredMessages.sum();
+    }
+
+    // Tin nhắn đến từ topic chính luôn bắt đầu từ 0; header "retry-count" của producer chỉ đếm số lần gửi lại
+    private int attemptsOf(ConsumerRecord<String, Message> record) {
+        if (topicName.equals(record.topic())) {
+            return 0;
+        }
+        Header retryCount = record.headers().lastHeader(RETRY_COUNT_HEADER);
+        return retryCount == null ? 0 : Integer.parseInt(new String(retryCount.value(), StandardCharsets.UTF_8));
+    }
+
+    private String originalTopicOf(ConsumerRecord<String, Message> record) {
+        Header original = record.headers().lastHeader(ORIGINAL_TOPIC_HEADER);
+        return original == null ? record.topic() : new String(original.value(), StandardCharsets.UTF_8);
+    }
+
+    private boolean send(ProducerRecord<String, Message> record) {
+        try {
+            SendResult<String, Message> result = retryKafkaTemplate.send(record).get(SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            log.debug("Routed message to {} partition {} offset {}", record.topic(),
+                    result.getRecordMetadata().partition(), result.getRecordMetadata().offset());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            log.error("Failed to route message to {}", record.topic(), e);
+            return false;
+        }
+    }
+
+    private static List<Header> copyHeaders(Headers headers) {
+        List<Header> copy = new ArrayList<>();
+        for (Header header : headers) {
+            if (!ROUTING_HEADERS.contains(header.key())) {
+                copy.add(header);
+            }
+        }
+        return copy;
+    }
+
+    private static Header header(String key, String value) {
+        return new RecordHeader(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.producer.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+// Xác nhận ghi bền vững: tin nhắn đã được broker ghi nhận tại partition/offset này
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SendAck {
+
+    private String messageId;
+    private String topic;
+    private int partition;
+    private long offset;
+    private long timestamp;
+
+    public static SendAck of(String messageId, RecordMetadata metadata) {
+        return new SendAck(messageId, metadata.topic(), metadata.partition(), metadata.offset(), metadata.timestamp());
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.consumer.service;
+
+import com.example.consumer.model.Message;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chế độ consume-transform-produce exactly-once (kafka.consumer.listener-mode=transactional).
+ * Mỗi lô poll chạy trong một Kafka transaction do container quản lý: kết quả ghi ra output topic,
+ * tin nhắn lỗi ghi sang DLT và offset của lô được commit nguyên tử, nên không cần chỉ mục chống trùng lặp.
+ */
+@Service
+@Slf4j
+@Profile("cluster")
+@ConditionalOnProperty(name = "kafka.consumer.listener-mode", havingValue = "transactional")
+public class TransactionalMessageProcessor {
+
+    private static final int MAX_PROCESSING_ATTEMPTS = 3;
+    private static final int MAX_TRACKED_BATCHES = 10_000;
+
+    private final KafkaTemplate<String, Message> transactionalKafkaTemplate;
+    private final HighAvailabilityConsumerService consumerService;
+    private final RecordPreFilter recordPreFilter;
+    private final ConsumerMetrics metrics;
+
+    @Value("${kafka.topic.name}")
+    private String topicName;
+
+    @Value("${kafka.consumer.transactions.output-topic:${kafka.topic.name}-processed}")
+    private String outputTopic;
+
+    @Value("${kafka.consumer.transactions.max-rollbacks:3}")
+    private int maxRollbacks;
+
+    // Số lần một lô (nhận diện bằng record đầu tiên) đã được giao lại sau rollback.
+    // Container không biết record nào trong lô batch gây lỗi nên không tự chuyển sang DLT được
+    private final Map<String, Integer> batchDeliveries = new ConcurrentHashMap<>();
+
+    public TransactionalMessageProcessor(@Qualifier("transactionalKafkaTemplate") KafkaTemplate<String, Message> transactionalKafkaTemplate,
+                                         HighAvailabilityConsumerService consumerService,
+                                         RecordPreFilter recordPreFilter,
+                                         ConsumerMetrics metrics) {
+        this.transactionalKafkaTemplate = transactionalKafkaTemplate;
+        this.consumerService = consumerService;
+        this.recordPreFilter = recordPreFilter;
+        this.metrics = metrics;
+    }
+
+    @KafkaListener(
+        id = "ha-transactional",
+        topics = "${kafka.topic.name}",
+        groupId = "${spring.kafka.consumer.group-id}",
+        containerFactory = "clusterTransactionalKafkaListenerContainerFactory"
+    )
+    public void listenTransactional(List<ConsumerRecord<String, Message>> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        ConsumerRecord<String, Message> first = records.get(0);
+        String batchKey = first.topic() + "-" + first.partition() + "@" + first.offset();
+        int deliveries = batchDeliveries.merge(batchKey, 1, Integer::sum);
+        if (batchDeliveries.size() > MAX_TRACKED_BATCHES) {
+            // Các lô đã rollback rồi được giao cho consumer khác sau rebalance không bao giờ commit ở đây
+            batchDeliveries.clear();
+        }
+        if (deliveries > maxRollbacks) {
+            deadLetterBatch(records, batchKey);
+            return;
+        }
+
+        List<ConsumerRecord<String, Message>> processed = new ArrayList<>(records.size());
+        int deadLettered = 0;
+        for (ConsumerRecord<String, Message> record : records) {
+            metrics.recordReceived(record);
+            Message message = record.value();
+            if (message == null || !recordPreFilter.accepts(message.getType())) {
+                metrics.recordFiltered();
+                continue;
+            }
+            if (processWithRetry(message)) {
+                transactionalKafkaTemplate.send(outputTopic, record.key(), message);
+                processed.add(record);
+            } else {
+                // Ghi sang DLT trong cùng transaction để không mất tin nhắn và không chặn partition
+                transactionalKafkaTemplate.send(topicName + RetryTopicRouter.DLT_SUFFIX, record.key(), message);
+                deadLettered++;
+            }
+        }
+
+        // Trạng thái trong bộ nhớ chỉ được cập nhật khi transaction đã commit; nếu rollback, cả lô sẽ được xử lý lại
+        int deadLetteredInBatch = deadLettered;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                batchDeliveries.remove(batchKey);
+                consumerService.onTransactionCommitted(processed, deadLetteredInBatch);
+            }
+        });
+        log.debug("Processed batch of {} records in transaction, {} dead-lettered", records.size(), deadLettered);
+    }
+
+    // Lô bị rollback quá max-rollbacks lần (ví dụ một record không ghi được ra output topic):
+    // chuyển nguyên lô sang DLT trong transaction hiện tại để partition không bị chặn mãi
+    private void deadLetterBatch(List<ConsumerRecord<String, Message>> records, String batchKey) {
+        log.error("Batch starting at {} rolled back more than {} times, moving {} records to dead letter topic",
+                batchKey, maxRollbacks, records.size());
+        for (ConsumerRecord<String, Message> record : records) {
+            transactionalKafkaTemplate.send(topicName + RetryTopicRouter.DLT_SUFFIX, record.key(), record.value());
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                batchDeliveries.remove(batchKey);
+                consumerService.onTransactionCommitted(Collections.emptyList(), records.size());
+            }
+        });
+    }
+
+    private boolean processWithRetry(Message message) {
+        for (int attempt = 1; attempt <= MAX_PROCESSING_ATTEMPTS; attempt++) {
+            long processingStart = System.nanoTime();
+            try {
+                consumerService.processMessage(message);
+                metrics.recordProcessed(System.nanoTime() - processingStart);
+                return true;
+            } catch (Exception e) {
+                metrics.recordFailure();
+                log.warn("Error processing message: {}, attempt: {}/{}", message.getId(), attempt, MAX_PROCESSING_ATTEMPTS, e);
+            }
+        }
+        log.error("Max processing attempts reached for message: {}, moving to dead letter topic", message.getId());
+        return false;
+    }
+}
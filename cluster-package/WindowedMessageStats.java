@@ -0,0 +1,179 @@
+package com.example.consumer.service;
+
+import com.example.consumer.model.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thống kê số tin nhắn theo MessageType và theo partition trên các cửa sổ thời gian (trượt và cố định).
+ * Dữ liệu được chia thành các bucket có độ rộng bucket-ms trong một mảng vòng; mỗi tin nhắn chỉ tăng bộ đếm
+ * nguyên tử của bucket hiện tại nên truy vấn tốn O(số bucket trong cửa sổ), không phụ thuộc số tin nhắn.
+ * Số liệu tại ranh giới giữa hai bucket có thể lệch vài tin nhắn khi bucket được tái sử dụng.
+ */
+@Component
+@Profile("cluster")
+public class WindowedMessageStats {
+
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+    private static final long RESETTING = -1;
+
+    private final long bucketMs;
+    private final int maxPartitions;
+    private final Bucket[] buckets;
+
+    public WindowedMessageStats(@Value("${kafka.consumer.stats.bucket-ms:1000}") long bucketMs,
+                                @Value("${kafka.consumer.stats.buckets:900}") int bucketCount,
+                                @Value("${kafka.consumer.stats.max-partitions:64}") int maxPartitions) {
+        this.bucketMs = bucketMs;
+        this.maxPartitions = maxPartitions;
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket(TYPES.length, maxPartitions);
+        }
+    }
+
+    public void record(Message.MessageType type, int partition) {
+        long index = System.currentTimeMillis() / bucketMs;
+        Bucket bucket = bucketFor(index);
+        if (bucket == null) {
+            return;
+        }
+        bucket.total.incrementAndGet();
+        if (type != null) {
+            bucket.types.incrementAndGet(type.ordinal());
+        }
+        if (partition >= 0 && partition < maxPartitions) {
+            bucket.partitions.incrementAndGet(partition);
+        }
+    }
+
+    /**
+     * Cửa sổ trượt kết thúc tại thời điểm hiện tại (bao gồm bucket đang ghi).
+     */
+    public Map<String, Object> sliding(long windowMs) {
+        long current = System.currentTimeMillis() / bucketMs;
+        int width = bucketsIn(windowMs);
+        return aggregate(current - width + 1, current, windowMs);
+    }
+
+    /**
+     * Cửa sổ cố định (tumbling) gần nhất đã kết thúc, căn theo bội số của windowMs.
+     */
+    public Map<String, Object> tumbling(long windowMs) {
+        long current = System.currentTimeMillis() / bucketMs;
+        int width = bucketsIn(windowMs);
+        long end = (current / width) * width - 1;
+        Map<String, Object> result = aggregate(end - width + 1, end, windowMs);
+        result.put("windowStartMs", (end - width + 1) * bucketMs);
+        return result;
+    }
+
+    private int bucketsIn(long windowMs) {
+        long width = Math.max(1, windowMs / bucketMs);
+        if (width >= buckets.length) {
+            // Bucket hiện tại đang được ghi nên cửa sổ chỉ có thể chứa tối đa buckets - 1 bucket đã kết thúc
+            throw new IllegalArgumentException("Window must be shorter than " + (buckets.length - 1) * bucketMs + " ms");
+        }
+        return (int) width;
+    }
+
+    private Map<String, Object> aggregate(long first, long last, long windowMs) {
+        long total = 0;
+        long[] types = new long[TYPES.length];
+        long[] partitions = new long[maxPartitions];
+        for (long index = first; index <= last; index++) {
+            Bucket bucket = buckets[(int) Math.floorMod(index, (long) buckets.length)];
+            if (bucket.window.get() != index) {
+                continue;
+            }
+            total += bucket.total.get();
+            for (int i = 0; i < types.length; i++) {
+                types[i] += bucket.types.get(i);
+            }
+            for (int i = 0; i < partitions.length; i++) {
+                partitions[i] += bucket.partitions.get(i);
+            }
+        }
+
+        double seconds = windowMs / 1000.0;
+        Map<Message.MessageType, Map<String, Number>> byType = new EnumMap<>(Message.MessageType.class);
+        for (int i = 0; i < types.length; i++) {
+            byType.put(TYPES[i], countAndRate(types[i], seconds));
+        }
+        Map<Integer, Map<String, Number>> byPartition = new TreeMap<>();
+        for (int i = 0; i < partitions.length; i++) {
+            if (partitions[i] > 0) {
+                byPartition.put(i, countAndRate(partitions[i], seconds));
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("windowMs", windowMs);
+        result.put("total", total);
+        result.put("ratePerSecond", total / seconds);
+        result.put("byType", byType);
+        result.put("byPartition", byPartition);
+        return result;
+    }
+
+    private static Map<String, Number> countAndRate(long count, double seconds) {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("count", count);
+        stats.put("ratePerSecond", count / seconds);
+        return stats;
+    }
+
+    // Lấy bucket cho chỉ số thời gian, xóa dữ liệu cũ nếu bucket đang giữ một khoảng thời gian trước đó
+    private Bucket bucketFor(long index) {
+        Bucket bucket = buckets[(int) Math.floorMod(index, (long) buckets.length)];
+        while (true) {
+            long window = bucket.window.get();
+            if (window == index) {
+                return bucket;
+            }
+            if (window == RESETTING) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (window > index) {
+                // Đồng hồ lùi hoặc thread bị trễ quá một vòng: bucket đã thuộc về khoảng thời gian mới hơn
+                return null;
+            }
+            if (bucket.window.compareAndSet(window, RESETTING)) {
+                bucket.clear();
+                bucket.window.set(index);
+                return bucket;
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private final AtomicLong window = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLongArray types;
+        private final AtomicLongArray partitions;
+
+        Bucket(int typeCount, int partitionCount) {
+            this.types = new AtomicLongArray(typeCount);
+            this.partitions = new AtomicLongArray(partitionCount);
+        }
+
+        void clear() {
+            total.set(0);
+            for (int i = 0; i < types.length(); i++) {
+                types.set(i, 0);
+            }
+            for (int i = 0; i < partitions.length(); i++) {
+                partitions.set(i, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.consumer.service;
+
+import com.example.consumer.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WindowedMessageStatsTest {
+
+    private static final long BUCKET_MS = 1_000;
+
+    @Test
+    void slidingWindowIncludesCurrentBucket() {
+        WindowedMessageStats stats = new WindowedMessageStats(BUCKET_MS, 60, 4);
+        stats.record(Message.MessageType.DATA, 0);
+        stats.record(Message.MessageType.DATA, 1);
+        stats.record(Message.MessageType.INFO, 1);
+
+        Map<String, Object> window = stats.sliding(10_000);
+
+        assertEquals(3L, window.get("total"));
+        assertEquals(2L, countOf(window, "byType", Message.MessageType.DATA));
+        assertEquals(1L, countOf(window, "byType", Message.MessageType.INFO));
+        assertEquals(1L, countOf(window, "byPartition", 0));
+        assertEquals(2L, countOf(window, "byPartition", 1));
+    }
+
+    @Test
+    void partitionsOutsideRangeCountOnlyInTotal() {
+        WindowedMessageStats stats = new WindowedMessageStats(BUCKET_MS, 60, 2);
+        stats.record(Message.MessageType.DATA, 5);
+        stats.record(null, -1);
+
+        Map<String, Object> window = stats.sliding(10_000);
+
+        assertEquals(2L, window.get("total"));
+        assertTrue(((Map<?, ?>) window.get("byPartition")).isEmpty());
+        assertEquals(1L, countOf(window, "byType", Message.MessageType.DATA));
+    }
+
+    @Test
+    void tumblingWindowIsAlignedAndExcludesCurrentWindow() {
+        long windowMs = 10_000;
+        WindowedMessageStats stats = new WindowedMessageStats(BUCKET_MS, 60, 4);
+        Map<String, Object> window;
+        long now;
+        // Lặp lại nếu thời gian vượt qua ranh giới cửa sổ giữa lúc ghi và lúc truy vấn
+        do {
+            now = System.currentTimeMillis();
+            stats.record(Message.MessageType.DATA, 0);
+            window = stats.tumbling(windowMs);
+        } while (System.currentTimeMillis() / windowMs != now / windowMs);
+
+        long windowStart = (Long) window.get("windowStartMs");
+        assertEquals(0, windowStart % windowMs);
+        assertEquals(now / windowMs * windowMs - windowMs, windowStart);
+        assertEquals(0L, window.get("total"));
+        assertEquals(windowMs, window.get("windowMs"));
+    }
+
+    @Test
+    void rejectsWindowLongerThanRetainedBuckets() {
+        WindowedMessageStats stats = new WindowedMessageStats(BUCKET_MS, 10, 4);
+
+        assertThrows(IllegalArgumentException.class, () -> stats.sliding(10_000));
+        assertThrows(IllegalArgumentException.class, () -> stats.tumbling(10_000));
+        assertFalse(stats.sliding(9_000).isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object countOf(Map<String, Object> window, String group, Object key) {
+        Map<Object, Map<String, Number>> counts = (Map<Object, Map<String, Number>>) window.get(group);
+        return counts.get(key).get("count");
+    }
+}